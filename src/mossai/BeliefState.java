@@ -1,6 +1,7 @@
 package mossai;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 /** Encapsulation of subjective data from a certain perspective. */
@@ -13,13 +14,36 @@ final class BeliefState
     private static final int TBC = 5;
     
     /** Macro for setting all cards of a suit potentially occupying a location. */
-    private static final int ALL_RANKS = (1 << (Game.SUIT_SIZE + 1)) - 1;
+    private static final int ALL_RANKS = (1 << Game.SUIT_SIZE) - 1;
     
     /** Macro for checking number of unknown cards. */
     private static final int UNKNOWN = 4;
     
+    /** The number of sets of the four locations. */
+    private static final int PLACES = 1 << 4;
+    
+    /** The bit of each card in a hand by ordinal, as in Rules, by index. */
+    private static final long[] ORDINAL_BIT = new long[Game.DECK_SIZE];
+    
+    /** The number of ways to choose k cards of n, by n then k. */
+    private static final long[][] CHOOSE = new long[Game.DECK_SIZE + 1][Game.DECK_SIZE + 1];
+    
+    static
+    {
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+            ORDINAL_BIT[c] = Rules.bit(Game.intToCard(c));
+        
+        for(int n = 0; n <= Game.DECK_SIZE; n++)
+        {
+            CHOOSE[n][0] = 1L;
+            
+            for(int k = 1; k <= n; k++)
+                CHOOSE[n][k] = CHOOSE[n - 1][k - 1] + CHOOSE[n - 1][k];
+        }
+    }
+    
     /** The viewpoint from which this belief is defined. */
-    private final int viewer;
+    private int viewer;
     
     /*
      * By using both of the below representations, we can perform most llokup
@@ -40,6 +64,12 @@ final class BeliefState
      */
     private final int[][] cards;
     
+    /** Working space for sampling, made when first needed. */
+    private int[] doubtful;
+    private int[] waiting;
+    private int[] room;
+    private int[] weight;
+    
     /** Create a blank belief for a new game. */
     BeliefState()
     {
@@ -63,13 +93,38 @@ final class BeliefState
      */
     BeliefState(int v, BeliefState history, int[] cardState)
     {
-        viewer = v;
-        locs = Arrays.copyOf(history.locs, Game.DECK_SIZE);
+        this(history);
+        reveal(v, cardState);
+    }
+    
+    /** Create a clone of an existing BeliefState. */
+    BeliefState(BeliefState old)
+    {
+        viewer = old.viewer;
+        locs = Arrays.copyOf(old.locs, Game.DECK_SIZE);
         
-        cards = new int[history.cards.length][history.cards[0].length];
+        cards = new int[old.cards.length][old.cards[0].length];
         for(int i = 0; i < cards.length; i++)
-			cards[i] = Arrays.copyOf(history.cards[i], cards[0].length);
-		
+			cards[i] = Arrays.copyOf(old.cards[i], cards[0].length);
+    }
+    
+    /** Overwrite this belief with a copy of another, without allocating. */
+    void copy(BeliefState old)
+    {
+        viewer = old.viewer;
+        System.arraycopy(old.locs, 0, locs, 0, Game.DECK_SIZE);
+        
+        for(int i = 0; i < cards.length; i++)
+            System.arraycopy(old.cards[i], 0, cards[i], 0, cards[i].length);
+    }
+    
+    /**
+     * Incorporate a player's knowledge of where every card lies into this
+     * belief, making it theirs.
+     */
+    void reveal(int v, int[] cardState)
+    {
+        viewer = v;
         cards[viewer][UNKNOWN] = 0;
         if(viewer == Game.LEADER)
 			cards[Game.OUT][UNKNOWN] = 0;
@@ -81,10 +136,12 @@ final class BeliefState
             if(cardState[c] == viewer)
 				locs[c] = 1 << viewer;
             // If the hand was a potential location but now isn't.
-            else if(maybeHas(Game.intToCard(c), viewer))
+            else
             {
-                locs[c] -= 1 << viewer;
-                cards[viewer][Game.cardIntToSuit(c)] -= 1 << Game.intToRank(c);
+                if(maybeHas(c, viewer))
+                    locs[c] -= 1 << viewer;
+                
+                cards[viewer][Game.cardIntToSuit(c)] &= ~(1 << Game.intToRank(c));
             }
             
             // The leader otherHas no uncertainty over discarded cards.
@@ -93,10 +150,12 @@ final class BeliefState
                 if(cardState[c] == Game.OUT)
 					locs[c] = 1 << Game.OUT;
                 // If the card was thought discarded but wasn't.
-                else if(maybeHas(Game.intToCard(c), Game.OUT))
+                else
                 {
-                    locs[c] -= 1 << Game.OUT;
-                    cards[Game.OUT][Game.cardIntToSuit(c)] -= 1 << Game.intToRank(c);
+                    if(maybeHas(c, Game.OUT))
+                        locs[c] -= 1 << Game.OUT;
+                    
+                    cards[Game.OUT][Game.cardIntToSuit(c)] &= ~(1 << Game.intToRank(c));
                 }
             }
             
@@ -104,26 +163,19 @@ final class BeliefState
             confirm(c);
         }
     }
-    
-    /** Create a clone of an existing BeliefState. */
-    BeliefState(BeliefState old)
-    {
-        viewer = old.viewer;
-        locs = Arrays.copyOf(old.locs, Game.DECK_SIZE);
-        
-        cards = new int[old.cards.length][old.cards[0].length];
-        for(int i = 0; i < cards.length; i++)
-			cards[i] = Arrays.copyOf(old.cards[i], cards[0].length);
-    }
 	
 	/** Returns true if the viewer has a given card. */
-	boolean has(Card c) { return locs[Game.cardToInt(c)] == (1 << viewer); }
+	boolean has(Card c) { return has(Game.cardToInt(c)); }
 	
 	/** Returns true if the viewer has at least one card of a certain suit. */
 	boolean has(Suit s) { return cards[viewer][Game.suitToInt(s)] > 0; }
 	
 	/** Returns true if a card is considered to be in a certain location. */
-    boolean otherHas(Card c, int loc) { return maybeHas(c, loc) && chance(c, loc) > Raptor.POSITIVE; }
+    boolean otherHas(Card c, int loc)
+	{
+		int i = Game.cardToInt(c);
+		return maybeHas(i, loc) && chance(i, loc) > Raptor.POSITIVE;
+	}
 	
     /**
 	 * Returns true if a location is considered to contain at least one card of
@@ -140,8 +192,8 @@ final class BeliefState
 	 */
 	Card beat(Card c)
 	{
-		for(int i = Game.cardToInt(c); i <= Game.suitEnds(c.suit); i++)
-			if(has(Game.intToCard(i)))
+		for(int i = Game.cardToInt(c); i <= Game.suitIntEnds(Game.cardToSuit(c)); i++)
+			if(has(i))
 				return Game.intToCard(i);
 		
 		return null;
@@ -149,13 +201,15 @@ final class BeliefState
 	
     /**
      * Returns true if a location is considered to have a higher ranked card in
-	 * the same suit.
+	 * the same suit: one that might be there and likely is.
      */
     boolean otherHasHigher(Card c, int loc)
     {
+		int ci = Game.cardToInt(c);
+		
 		if(cards[loc][Game.cardToSuit(c)] > (1 << Game.cardToRank(c)))
-            for(int i = Game.cardToInt(c); i <= Game.suitEnds(c.suit); i++)
-                if(chance(c, loc) > Raptor.POSITIVE)
+            for(int i = ci + 1; i <= Game.suitIntEnds(Game.cardToSuit(c)); i++)
+                if(maybeHas(i, loc) && chance(i, loc) > Raptor.POSITIVE)
                     return true;
 		
         return false;
@@ -165,7 +219,7 @@ final class BeliefState
 	Card highest(Suit s)
 	{
 		for(int c = Game.suitEnds(s); c >= Game.suitBegins(s); c--)
-			if(has(Game.intToCard(c)))
+			if(has(c))
 				return Game.intToCard(c);
 		
 		return null;
@@ -176,7 +230,7 @@ final class BeliefState
     {
         if(maybeHas(s, loc))
             for(int c = Game.suitEnds(s); c >= Game.suitBegins(s); c--)
-                if(chance(Game.intToCard(c), loc) > Raptor.POSITIVE)
+                if(chance(c, loc) > Raptor.POSITIVE)
                     return Game.intToCard(c);
 		
         return null;
@@ -186,7 +240,7 @@ final class BeliefState
     Card lowest(Suit s)
     {
 		for(int c = Game.suitBegins(s); c <= Game.suitEnds(s); c++)
-			if(has(Game.intToCard(c)))
+			if(has(c))
 				return Game.intToCard(c);
 		
         return null;
@@ -197,12 +251,12 @@ final class BeliefState
     {
         Card low = null;
 		
-		for(Suit s : Suit.values())
+		for(int s = 0; s < Game.NUM_SUITS; s++)
 		{
-			if(s == Game.TRUMP && noTrump) continue;
+			if(s == Game.TRUMP_INT && noTrump) continue;
 			else
 			{
-				Card contest = lowest(s);
+				Card contest = lowest(Game.suitIntToSuit(s));
 
 				if(contest != null && (low == null || contest.rank < low.rank))
 					low = contest;
@@ -215,8 +269,9 @@ final class BeliefState
     /** Update the belief when a card is played. */
     void cardPlayed(Card c, int loc, Card lead)
     {   
-        // The card is now known to be out of that hand.
-        cards[loc][Game.cardToSuit(c)] -= 1 << Game.cardToRank(c);
+        // The card is now known to be out of every hand.
+        for(int l = 0; l < cards.length; l++)
+            cards[l][Game.cardToSuit(c)] &= ~(1 << Game.cardToRank(c));
         
         if(loc == viewer)
             locs[Game.cardToInt(c)] = 1 << Game.OUT;
@@ -225,7 +280,7 @@ final class BeliefState
         {
             // If the card wasn't known to be in that player's hand, there is
             // now one less unknown card there.
-            if(tbc(c))
+            if(tbc(Game.cardToInt(c)))
                 cards[loc][UNKNOWN]--;
             
             locs[Game.cardToInt(c)] = 1 << Game.OUT;
@@ -235,13 +290,13 @@ final class BeliefState
             if(lead != null && c.suit != lead.suit && c.suit != Game.TRUMP)
             {
                 // Remove all cards in the suit from the belief about their hand.
-                cards[loc][Game.cardToSuit(c)] = 0;
+                cards[loc][Game.cardToSuit(lead)] = 0;
 				
                 // Iterate through cards in the lead suit.
                 for(int i = Game.suitBegins(lead.suit); i <= Game.suitEnds(lead.suit); i++)
                 {
                     // If the card hasn't already been invalidated.
-                    if(maybeHas(Game.intToCard(i), loc))
+                    if(maybeHas(i, loc))
                     {
                         // Invalidate the card from this player's hand.
                         locs[i] -= 1 << loc;
@@ -252,66 +307,333 @@ final class BeliefState
         }
     }
     
-    /** Derive a sample game state from the belief. */
-    int[] sampleState()
+    /**
+     * Write the belief out as sets of cards by ordinal, four to a viewer
+     * from index at: the cards that might be in each location, and the cards
+     * of each suit still thought possible there. Fills the number of unknown
+     * cards in each location and returns the cards whose location is in doubt.
+     */
+    long pack(long[] places, long[] suits, int[] unknowns, int at)
+    {
+        long doubt = 0L;
+        
+        for(int l = 0; l < 4; l++)
+        {
+            places[at + l] = 0L;
+            suits[at + l] = 0L;
+            unknowns[at + l] = cards[l][UNKNOWN];
+            
+            for(int s = 0; s < Game.NUM_SUITS; s++)
+                for(int r = cards[l][s]; r != 0; r &= r - 1)
+                    suits[at + l] |= ORDINAL_BIT[Game.suitIntBegins(s) + Integer.numberOfTrailingZeros(r)];
+        }
+        
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+        {
+            if(tbc(c)) doubt |= ORDINAL_BIT[c];
+            
+            for(int m = locs[c] & (PLACES - 1); m != 0; m &= m - 1)
+                places[at + Integer.numberOfTrailingZeros(m)] |= ORDINAL_BIT[c];
+        }
+        
+        return doubt;
+    }
+    
+    /**
+     * Derive a sample game state from the belief, using the given random
+     * stream, filling in the location of each card by index.
+     * Cards whose location is in doubt are dealt in a random order, each to
+     * one of its possible locations with probability in proportion to the
+     * unknown cards still to be placed there, so every location ends up with
+     * as many cards as it should hold. A location is passed over if taking
+     * the card would leave the rest of the cards no way to fit.
+     */
+    void sampleState(Random gen, int[] sample)
     {
-        Random gen = new Random();
-        int[] sample = new int[Game.DECK_SIZE];
+        // Working space, kept for the next sample: a belief that is sampled usually is again.
+        if(doubtful == null)
+        {
+            doubtful = new int[Game.DECK_SIZE];
+            waiting = new int[PLACES];
+            room = new int[4];
+            weight = new int[4];
+        }
+        else
+            Arrays.fill(waiting, 0);
         
-        // The difference between these bounds acts as the weighting for the
-        // probability of a card being assigned to a location.
-        double upperBound;
-        double lowerBound = 0.0;
+        int n = 0;
         
-        // Assign a location to each card in the deck.
         for(int c = 0; c < Game.DECK_SIZE; c++)
         {
-            double p = gen.nextDouble();
+            if(tbc(c))
+            {
+                doubtful[n++] = c;
+                waiting[locs[c] & (PLACES - 1)]++;
+            }
+            else sample[c] = Integer.numberOfTrailingZeros(locs[c]);
+        }
+        
+        for(int l = 0; l < 4; l++)
+            room[l] = cards[l][UNKNOWN];
+        
+        // If the counts are already inconsistent, deal as well as possible regardless.
+        boolean check = fits(waiting, room);
+        
+        for(int i = n - 1; i >= 0; i--)
+        {
+            int j = gen.nextInt(i + 1);
+            int c = doubtful[j];
+            doubtful[j] = doubtful[i];
+            doubtful[i] = c;
+            waiting[locs[c] & (PLACES - 1)]--;
+            
+            int total = 0;
             
-            // Consider the probability of the card being in each location.
             for(int l = 0; l < 4; l++)
             {
-                // We can skip forward if the location is certain.
-                if(certain(Game.intToCard(c), l))
+                weight[l] = 0;
+                
+                if(maybeHas(c, l) && room[l] > 0)
                 {
-                    sample[c] = l;
-                    break;
+                    room[l]--;
+                    
+                    if(!check || fits(waiting, room))
+                        weight[l] = room[l] + 1;
+                    
+                    room[l]++;
+                    total += weight[l];
                 }
-                // We can skip ahead if this is an invalid location.
-                else if(maybeHas(Game.intToCard(c), l))
+            }
+            
+            if(total == 0)
+            {
+                int best = 0;
+                
+                for(int l = 1; l < 4; l++)
+                    if(chance(c, l) > chance(c, best))
+                        best = l;
+                
+                sample[c] = best;
+                continue;
+            }
+            
+            int pick = gen.nextInt(total);
+            
+            for(int l = 0; l < 4; l++)
+            {
+                if(pick < weight[l])
                 {
-                    upperBound = lowerBound + chance(Game.intToCard(c), l);
-
-                    // We have already ruled out p < lowerBound, so if
-                    // p < upperBound it falls between the two bounds.
-                    if(p < upperBound)
-                    {
-                        sample[c] = l;
-                        break;
-                    }
-                    else
-                        lowerBound = upperBound;
+                    sample[c] = l;
+                    room[l]--;
+                    break;
                 }
+                else pick -= weight[l];
             }
         }
+    }
+    
+    /**
+     * List every deal consistent with the belief, each as sampleState would
+     * fill a sample, if there are no more than a limit of them. A deal
+     * drawn at random and then played as the belief has seen is equally
+     * likely to be any of them, so every deal carries the same weight.
+     * Returns the number of deals, or -1 if there are more than the limit,
+     * in which case they are only counted and the list is left as it was.
+     */
+    int deals(int limit, List<int[]> into)
+    {
+        int[] waiting = new int[PLACES];
+        int[] room = new int[4];
+        
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+            if(tbc(c))
+                waiting[locs[c] & (PLACES - 1)]++;
+        
+        for(int l = 0; l < 4; l++)
+            room[l] = cards[l][UNKNOWN];
+        
+        if(count(waiting, 1, room, limit + 1L) > limit)
+            return -1;
         
-        return sample;
+        int[] base = new int[Game.DECK_SIZE];
+        long[] possible = new long[4];
+        long doubt = 0L;
+        
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+        {
+            if(tbc(c))
+            {
+                doubt |= 1L << c;
+                
+                for(int l = 0; l < 4; l++)
+                    if(maybeHas(c, l))
+                        possible[l] |= 1L << c;
+            }
+            else base[c] = Integer.numberOfTrailingZeros(locs[c]);
+        }
+        
+        int start = into.size();
+        
+        if(!deal(0, doubt, possible, base, limit + start, into))
+            return -1;
+        
+        return into.size() - start;
+    }
+    
+    /**
+     * Deal the cards left in doubt to the locations from loc on, choosing
+     * the cards of each location in turn from those that might be there.
+     * Cards that can't go in any later location must go in this one.
+     * Returns false if the list grows past a size.
+     */
+    private boolean deal(int loc, long left, long[] possible, int[] base, int size, List<int[]> into)
+    {
+        if(loc == 4)
+        {
+            if(into.size() >= size)
+                return false;
+            
+            into.add(Arrays.copyOf(base, base.length));
+            return true;
+        }
+        
+        long later = 0L;
+        
+        for(int l = loc + 1; l < 4; l++)
+            later |= possible[l];
+        
+        long must = left & ~later;
+        long free = left & possible[loc] & ~must;
+        int need = cards[loc][UNKNOWN] - Long.bitCount(must);
+        
+        if((must & ~possible[loc]) != 0 || need < 0 || need > Long.bitCount(free))
+            return true;
+        
+        return choose(loc, left, must, free, need, possible, base, size, into);
     }
+    
+    /**
+     * Try each way of adding a number of cards from a set to those chosen
+     * for a location, dealing the rest to the locations after it each time.
+     */
+    private boolean choose(int loc, long left, long chosen, long free, int need, long[] possible, int[] base, int size, List<int[]> into)
+    {
+        if(need == 0)
+        {
+            for(long m = chosen; m != 0; m &= m - 1)
+                base[Long.numberOfTrailingZeros(m)] = loc;
+            
+            return deal(loc + 1, left & ~chosen, possible, base, size, into);
+        }
+        
+        if(Long.bitCount(free) < need)
+            return true;
+        
+        long low = free & -free;
+        
+        return choose(loc, left, chosen | low, free & ~low, need - 1, possible, base, size, into)
+            && choose(loc, left, chosen, free & ~low, need, possible, base, size, into);
+    }
+    
+    /**
+     * Count the deals of the cards waiting to be dealt, counted by the set
+     * of locations each might be in, from a set on, that fill the room left
+     * in every location. Cards of a set are interchangeable as far as the
+     * count goes, so only how many go to each location need be chosen, and
+     * the ways to pick which are multiplied in. Stops at a cap, which it
+     * returns if the count reaches it.
+     */
+    private static long count(int[] waiting, int set, int[] room, long cap)
+    {
+        while(set < PLACES && waiting[set] == 0)
+            set++;
+        
+        if(set == PLACES)
+        {
+            for(int l = 0; l < 4; l++)
+                if(room[l] != 0)
+                    return 0L;
+            
+            return 1L;
+        }
+        
+        return split(waiting, set, waiting[set], 0, room, cap);
+    }
+    
+    /**
+     * Count the ways to deal the cards left of a set to its locations from
+     * one on, then the sets after it, stopping at a cap.
+     */
+    private static long split(int[] waiting, int set, int left, int loc, int[] room, long cap)
+    {
+        if(left == 0)
+            return count(waiting, set + 1, room, cap);
+        
+        if(loc == 4)
+            return 0L;
+        
+        if((set & (1 << loc)) == 0)
+            return split(waiting, set, left, loc + 1, room, cap);
+        
+        long total = 0L;
+        
+        for(int k = Math.min(left, room[loc]); k >= 0 && total < cap; k--)
+        {
+            room[loc] -= k;
+            long ways = split(waiting, set, left - k, loc + 1, room, cap);
+            room[loc] += k;
+            
+            // Both factors are capped first, so the product can't overflow.
+            total = Math.min(cap, total + Math.min(cap, CHOOSE[left][k]) * ways);
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Returns true if cards waiting to be dealt, counted by the set of
+     * locations each might be in, can all fit in the room left in the
+     * locations. By Hall's theorem they can unless, for some set of
+     * locations, more cards can only go there than there is room for.
+     */
+    private static boolean fits(int[] waiting, int[] room)
+    {
+        for(int set = 1; set < PLACES; set++)
+        {
+            int need = 0;
+            int space = 0;
+            
+            for(int m = 1; m < PLACES; m++)
+                if((m & ~set) == 0)
+                    need += waiting[m];
+            
+            for(int l = 0; l < 4; l++)
+                if((set & (1 << l)) != 0)
+                    space += room[l];
+            
+            if(need > space) return false;
+        }
+        
+        return true;
+    }
+	
+	/** Returns true if the viewer has the card of a given index. */
+	private boolean has(int c) { return locs[c] == (1 << viewer); }
 	
-	/** Returns true if the card might be in the given location. */
-    private boolean maybeHas(Card c, int loc) { return (locs[Game.cardToInt(c)] & (1 << loc)) != 0; }
+	/** Returns true if the card of a given index might be in the given location. */
+    private boolean maybeHas(int c, int loc) { return (locs[c] & (1 << loc)) != 0; }
     
     /** Returns true if there might be any cards of the given suit in a location. */
     private boolean maybeHas(Suit s, int loc) { return cards[loc][Game.suitToInt(s)] > 0; }
 	
-	/** Returns true if a card is definitely in a location. */
-    private boolean certain(Card c, int loc) { return locs[Game.cardToInt(c)] == (1 << loc); }
+	/** Returns true if the card of a given index is definitely in a location. */
+    private boolean certain(int c, int loc) { return locs[c] == (1 << loc); }
     
-	/** Returns true if a card's location is still in doubt. */
-    private boolean tbc(Card c) { return (locs[Game.cardToInt(c)] & (1 << TBC)) != 0; }
+	/** Returns true if the location of the card of a given index is still in doubt. */
+    private boolean tbc(int c) { return (locs[c] & (1 << TBC)) != 0; }
     
-	/** Return the probability of a card being in a location. */
-    private double chance(Card c, int loc)
+	/** Return the probability of the card of a given index being in a location. */
+    private double chance(int c, int loc)
     {
         if(!tbc(c))
             if(certain(c, loc))
@@ -343,12 +665,12 @@ final class BeliefState
     private void confirm(int c)
     {
         // If the card was already confirmed, skip the checks.
-        if(tbc(Game.intToCard(c)))
+        if(tbc(c))
         {
             switch(locs[c] - (1 << TBC))
             {
-                case Game.LEADER:
-                    locs[c] = Game.LEADER;
+                case 1 << Game.LEADER:
+                    locs[c] = 1 << Game.LEADER;
                     cards[Game.LEADER][UNKNOWN]--;
                     break;
                 case 1 << Game.LEFT:
@@ -0,0 +1,1059 @@
+package mossai;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the hot paths of the engine and the agents. Each
+ * benchmark times a reference implementation against the current one on
+ * the same inputs, after a warm up, and checks that they agree.
+ * Run with the name of a benchmark, or none to run them all.
+ */
+final class Benchmarks
+{
+    /** Timed repetitions of each benchmark, after as many warm up repetitions. */
+    private static final int REPS = 5;
+
+    /** Number of random inputs per repetition. */
+    private static final int INPUTS = 1 << 16;
+
+    /** Rounds over the inputs per repetition. */
+    private static final int ROUNDS = 64;
+
+    /** Keeps results alive so the JIT can't remove the work being timed. */
+    private static long sink;
+
+    private Benchmarks() {}
+
+    public static void main(String[] args)
+    {
+        String which = args.length > 0 ? args[0] : "all";
+
+        if(which.equals("all") || which.equals("tricks"))
+            tricks();
+
+        if(which.equals("all") || which.equals("lookups"))
+            lookups();
+
+        if(which.equals("all") || which.equals("moves"))
+            moves();
+
+        if(which.equals("all") || which.equals("playouts"))
+            playouts();
+
+        if(which.equals("all") || which.equals("batches"))
+            batches();
+
+        if(which.equals("all") || which.equals("endgames"))
+            endgames();
+
+        if(which.equals("all") || which.equals("deals"))
+            deals();
+
+        if(which.equals("all") || which.equals("searches"))
+            searches();
+
+        if(which.equals("all") || which.equals("trees"))
+            trees();
+
+        if(which.equals("all") || which.equals("stores"))
+            stores();
+
+        if(which.equals("all") || which.equals("transpositions"))
+            transpositions();
+
+        if(which.equals("all") || which.equals("collisions"))
+            collisions();
+
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** Trick resolution: enum comparisons as the engine and GameState did it, against Rules.winner. */
+    private static void tricks()
+    {
+        Random rand = new Random(1);
+        Card[] c0 = new Card[INPUTS];
+        Card[] c1 = new Card[INPUTS];
+        Card[] c2 = new Card[INPUTS];
+        int[] o0 = new int[INPUTS];
+        int[] o1 = new int[INPUTS];
+        int[] o2 = new int[INPUTS];
+
+        for(int i = 0; i < INPUTS; i++)
+        {
+            c0[i] = Rules.CARDS[rand.nextInt(Game.DECK_SIZE)];
+            do c1[i] = Rules.CARDS[rand.nextInt(Game.DECK_SIZE)]; while(c1[i] == c0[i]);
+            do c2[i] = Rules.CARDS[rand.nextInt(Game.DECK_SIZE)]; while(c2[i] == c0[i] || c2[i] == c1[i]);
+            o0[i] = c0[i].ordinal();
+            o1[i] = c1[i].ordinal();
+            o2[i] = c2[i].ordinal();
+        }
+
+        int mismatches = 0;
+
+        for(Card a : Rules.CARDS)
+            for(Card b : Rules.CARDS)
+                for(Card c : Rules.CARDS)
+                    if(a != b && b != c && a != c && legacyWinner(a, b, c) != Rules.winner(a.ordinal(), b.ordinal(), c.ordinal()))
+                        mismatches++;
+
+        System.out.println("tricks: " + mismatches + " disagreements over every possible trick");
+
+        double legacy = 0.0;
+        double kernel = 0.0;
+
+        for(int rep = 0; rep < 2 * REPS; rep++)
+        {
+            long start = System.nanoTime();
+            long sum = 0;
+
+            for(int r = 0; r < ROUNDS; r++)
+                for(int i = 0; i < INPUTS; i++)
+                    sum += legacyWinner(c0[i], c1[i], c2[i]);
+
+            long mid = System.nanoTime();
+
+            for(int r = 0; r < ROUNDS; r++)
+                for(int i = 0; i < INPUTS; i++)
+                    sum += Rules.winner(o0[i], o1[i], o2[i]);
+
+            long end = System.nanoTime();
+            sink += sum;
+
+            if(rep >= REPS)
+            {
+                legacy += mid - start;
+                kernel += end - mid;
+            }
+        }
+
+        report("tricks", legacy, kernel);
+    }
+
+    /** Card and suit indexing: the hash maps Game used to look them up in, against its tables. */
+    private static void lookups()
+    {
+        HashMap<Suit, Integer> suitMap = new HashMap<>(4);
+        HashMap<Card, Integer> cardMap = new HashMap<>(Game.DECK_SIZE);
+
+        for(Suit s : Suit.values())
+            suitMap.put(s, s.ordinal());
+
+        for(Card c : Card.values())
+            cardMap.put(c, Game.SUIT_SIZE * suitMap.get(c.suit) + c.rank - 2);
+
+        Random rand = new Random(1);
+        Card[] cards = new Card[INPUTS];
+
+        for(int i = 0; i < INPUTS; i++)
+            cards[i] = Rules.CARDS[rand.nextInt(Game.DECK_SIZE)];
+
+        double legacy = 0.0;
+        double tables = 0.0;
+
+        for(int rep = 0; rep < 2 * REPS; rep++)
+        {
+            long start = System.nanoTime();
+            long sum = 0;
+
+            for(int r = 0; r < ROUNDS; r++)
+                for(int i = 0; i < INPUTS; i++)
+                    sum += cardMap.get(cards[i]) + suitMap.get(cards[i].suit) + suitMap.get(cards[i].suit) * Game.SUIT_SIZE;
+
+            long mid = System.nanoTime();
+
+            for(int r = 0; r < ROUNDS; r++)
+                for(int i = 0; i < INPUTS; i++)
+                    sum += Game.cardToInt(cards[i]) + Game.cardToSuit(cards[i]) + Game.suitBegins(cards[i].suit);
+
+            long end = System.nanoTime();
+            sink += sum;
+
+            if(rep >= REPS)
+            {
+                legacy += mid - start;
+                tables += end - mid;
+            }
+        }
+
+        report("lookups", legacy, tables);
+    }
+
+    /**
+     * Whole moves: the time per card played in headless games between three
+     * greedy agents, including their belief updates. There is no reference
+     * version in the same build, so compare the figure between builds.
+     */
+    private static void moves()
+    {
+        int games = 2000;
+        double nanos = 0.0;
+
+        for(int rep = 0; rep < 2 * REPS; rep++)
+        {
+            long start = System.nanoTime();
+
+            for(int g = 0; g < games; g++)
+            {
+                MossSideWhist game = new MossSideWhist(new GreedyRaptor(), new GreedyRaptor(), new GreedyRaptor());
+                game.seed(g);
+                game.playGame(1);
+                sink += game.score(0);
+            }
+
+            if(rep >= REPS)
+                nanos += System.nanoTime() - start;
+        }
+
+        // Three hands of 48 cards a game.
+        System.out.printf("moves: %.0f ns per card played%n", nanos / ((double)REPS * games * 3 * 48));
+    }
+
+    /**
+     * Rollouts: greedy play to the end of the hand from determinized deals at
+     * every stage of the hand, by GameState's greedyEval and advance on a copy
+     * of each deal, against a Playout loaded from it, and against a Playout
+     * copied from one already loaded, the engine's speed alone. Checks the
+     * playouts end with the same tricks.
+     */
+    private static void playouts()
+    {
+        int deals = 1 << 10;
+        Random rand = new Random(1);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        GameState[] states = new GameState[deals];
+        Playout[] loaded = new Playout[deals];
+        Card[] moves = new Card[Game.DEAL];
+
+        for(int d = 0; d < deals; d++)
+        {
+            DealCorpus.deal(rand, seats);
+            int pos = d % 3;
+            List<Card> hand = new ArrayList<>();
+
+            for(Card c : Card.values())
+                if(seats[c.ordinal()] == pos)
+                    hand.add(c);
+
+            GameState state = new GameState(pos, hand);
+
+            if(pos == MSWAgent.LEADER)
+                for(int i = 0; i < Game.DISCARDS; i++)
+                    state.discardLow();
+
+            // Play some of the hand at random first, from a deal taken to be the real one.
+            GameState real = state.copy();
+            real.determinize(state, rand);
+
+            for(int i = rand.nextInt(3 * Game.DEAL); i > 0; i--)
+            {
+                Card c = moves[rand.nextInt(real.moves(moves))];
+                real.advance(c);
+                state.advance(c);
+            }
+
+            states[d] = state.copy();
+            states[d].determinize(state, rand);
+            loaded[d] = new Playout();
+            loaded[d].load(states[d]);
+        }
+
+        int mismatches = 0;
+        Playout playout = new Playout();
+
+        for(int d = 0; d < deals; d++)
+        {
+            GameState deal = states[d].copy();
+
+            while(!deal.over())
+                deal.advance(deal.greedyEval());
+
+            playout.load(states[d]);
+            playout.play();
+
+            for(int p = 0; p < 3; p++)
+                if(deal.tricks(p) != playout.tricks(p))
+                    mismatches++;
+        }
+
+        System.out.println("playouts: " + mismatches + " disagreements in tricks over " + deals + " deals");
+
+        double[] nanos = new double[3];
+        int rounds = 16;
+
+        for(int rep = 0; rep < 2 * REPS; rep++)
+        {
+            long sum = 0;
+            long start = System.nanoTime();
+
+            for(int r = 0; r < rounds; r++)
+                for(int d = 0; d < deals; d++)
+                {
+                    GameState deal = states[d].copy();
+
+                    while(!deal.over())
+                        deal.advance(deal.greedyEval());
+
+                    sum += deal.tricks(MSWAgent.LEADER);
+                }
+
+            long mid = System.nanoTime();
+
+            for(int r = 0; r < rounds; r++)
+                for(int d = 0; d < deals; d++)
+                {
+                    playout.load(states[d]);
+                    playout.play();
+                    sum += playout.tricks(MSWAgent.LEADER);
+                }
+
+            long copied = System.nanoTime();
+
+            for(int r = 0; r < rounds; r++)
+                for(int d = 0; d < deals; d++)
+                {
+                    playout.copy(loaded[d]);
+                    playout.play();
+                    sum += playout.tricks(MSWAgent.LEADER);
+                }
+
+            long end = System.nanoTime();
+            sink += sum;
+
+            if(rep >= REPS)
+            {
+                nanos[0] += mid - start;
+                nanos[1] += copied - mid;
+                nanos[2] += end - copied;
+            }
+        }
+
+        double runs = (double)REPS * rounds * deals;
+        System.out.printf("playouts: GameState %.0f/s, Playout loaded from a GameState %.0f/s, Playout alone %.0f/s%n",
+            runs / nanos[0] * 1e9, runs / nanos[1] * 1e9, runs / nanos[2] * 1e9);
+    }
+
+    /**
+     * Batched rollouts: greedy play to the end of the hand of 64 deals of
+     * the same position, with 16, 8 and 4 tricks left, by a Playout copied
+     * from each deal in turn against a PlayoutBatch copied from all of them.
+     * Checks every lane ends with the same tricks as its Playout.
+     */
+    private static void batches()
+    {
+        int positions = 1 << 6;
+        int lanes = PlayoutBatch.LANES;
+        Random rand = new Random(1);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        Card[] moves = new Card[Game.DEAL];
+        PlayoutBatch batch = new PlayoutBatch();
+        Playout playout = new Playout();
+
+        for(int left : new int[] {Game.DEAL, 8, 4})
+        {
+            PlayoutBatch[] batches = new PlayoutBatch[positions];
+            Playout[][] loaded = new Playout[positions][lanes];
+
+            for(int d = 0; d < positions; d++)
+            {
+                DealCorpus.deal(rand, seats);
+                int pos = d % 3;
+                List<Card> hand = new ArrayList<>();
+
+                for(Card c : Card.values())
+                    if(seats[c.ordinal()] == pos)
+                        hand.add(c);
+
+                GameState state = new GameState(pos, hand);
+
+                if(pos == MSWAgent.LEADER)
+                    for(int i = 0; i < Game.DISCARDS; i++)
+                        state.discardLow();
+
+                GameState real = state.copy();
+                real.determinize(state, rand);
+
+                for(int i = 3 * (Game.DEAL - left); i > 0; i--)
+                {
+                    Card c = moves[rand.nextInt(real.moves(moves))];
+                    real.advance(c);
+                    state.advance(c);
+                }
+
+                batches[d] = new PlayoutBatch();
+                batches[d].clear();
+
+                for(int j = 0; j < lanes; j++)
+                {
+                    GameState deal = state.copy();
+                    deal.determinize(state, rand);
+                    batches[d].load(j, deal);
+                    loaded[d][j] = new Playout();
+                    loaded[d][j].load(deal);
+                }
+            }
+
+            int mismatches = 0;
+
+            for(int d = 0; d < positions; d++)
+            {
+                batch.copy(batches[d]);
+                batch.play();
+
+                for(int j = 0; j < lanes; j++)
+                {
+                    playout.copy(loaded[d][j]);
+                    playout.play();
+
+                    for(int p = 0; p < 3; p++)
+                        if(batch.tricks(j, p) != playout.tricks(p))
+                            mismatches++;
+                }
+            }
+
+            double[] nanos = new double[2];
+            int rounds = 16;
+
+            for(int rep = 0; rep < 2 * REPS; rep++)
+            {
+                long sum = 0;
+                long start = System.nanoTime();
+
+                for(int r = 0; r < rounds; r++)
+                    for(int d = 0; d < positions; d++)
+                        for(int j = 0; j < lanes; j++)
+                        {
+                            playout.copy(loaded[d][j]);
+                            playout.play();
+                            sum += playout.tricks(MSWAgent.LEADER);
+                        }
+
+                long mid = System.nanoTime();
+
+                for(int r = 0; r < rounds; r++)
+                    for(int d = 0; d < positions; d++)
+                    {
+                        batch.copy(batches[d]);
+                        batch.play();
+                        sum += batch.total(MSWAgent.LEADER);
+                    }
+
+                long end = System.nanoTime();
+                sink += sum;
+
+                if(rep >= REPS)
+                {
+                    nanos[0] += mid - start;
+                    nanos[1] += end - mid;
+                }
+            }
+
+            double runs = (double)REPS * rounds * positions * lanes;
+            System.out.printf("batches: %d tricks left, Playout %.0f/s, PlayoutBatch %.0f/s, speed-up %.2fx, %d disagreements over %d deals%n",
+                left, runs / nanos[0] * 1e9, runs / nanos[1] * 1e9, nanos[0] / nanos[1], mismatches, positions * lanes);
+        }
+    }
+
+    /**
+     * Endgames: the value of every legal move in determinized deals with 3
+     * tricks left, by plain minimax over GameState copies against
+     * EndgameSolver, checking they agree, then the solver alone with 6
+     * tricks left.
+     */
+    private static void endgames()
+    {
+        for(int left : new int[] {3, 6})
+        {
+            int deals = left == 3 ? 1 << 7 : 1 << 9;
+            Random rand = new Random(1);
+            GameState[] states = new GameState[deals];
+            Card[] moves = new Card[Game.DEAL];
+
+            for(int d = 0; d < deals; d++)
+            {
+                byte[] seats = new byte[Game.DECK_SIZE];
+                DealCorpus.deal(rand, seats);
+                int pos = d % 3;
+                List<Card> hand = new ArrayList<>();
+
+                for(Card c : Card.values())
+                    if(seats[c.ordinal()] == pos)
+                        hand.add(c);
+
+                GameState state = new GameState(pos, hand);
+
+                if(pos == MSWAgent.LEADER)
+                    for(int i = 0; i < Game.DISCARDS; i++)
+                        state.discardLow();
+
+                states[d] = state.copy();
+                states[d].determinize(state, rand);
+
+                for(int i = 3 * (Game.DEAL - left) + rand.nextInt(3); i > 0; i--)
+                    states[d].advance(moves[rand.nextInt(states[d].moves(moves))]);
+            }
+
+            // Each repetition starts with an empty table, as a new position would.
+            TranspositionTable cache = new TranspositionTable(Raptor.SOLVE_SLOTS);
+            EndgameSolver solver = new EndgameSolver(cache);
+            int[] values = new int[deals * Game.DEAL];
+            int solves = 0;
+            int mismatches = 0;
+            double[] nanos = new double[2];
+
+            for(int rep = 0; rep < 2 * REPS; rep++)
+            {
+                long sum = 0;
+                int k = 0;
+                cache.clear();
+                long start = System.nanoTime();
+
+                if(left == 3)
+                    for(GameState state : states)
+                    {
+                        int n = state.moves(moves);
+
+                        for(int i = 0; i < n; i++)
+                        {
+                            GameState next = state.copy();
+                            next.advance(moves[i]);
+                            values[k++] = minimax(next, state.active());
+                        }
+                    }
+
+                long mid = System.nanoTime();
+                solves = 0;
+
+                for(GameState state : states)
+                {
+                    int n = state.moves(moves);
+
+                    for(int i = 0; i < n; i++)
+                    {
+                        solver.load(state);
+                        int v = solver.solve(moves[i].ordinal());
+
+                        if(left == 3 && v != values[solves])
+                            mismatches++;
+
+                        sum += v;
+                        solves++;
+                    }
+                }
+
+                long end = System.nanoTime();
+                sink += sum;
+
+                if(rep >= REPS)
+                {
+                    nanos[0] += mid - start;
+                    nanos[1] += end - mid;
+                }
+            }
+
+            if(left == 3)
+                System.out.printf("endgames: %d tricks left, minimax %.1f us, EndgameSolver %.1f us per move, speed-up %.0fx, %d disagreements over %d moves%n",
+                    left, nanos[0] / 1e3 / (REPS * solves), nanos[1] / 1e3 / (REPS * solves), nanos[0] / nanos[1], mismatches, 2 * REPS * solves);
+            else
+                System.out.printf("endgames: %d tricks left, EndgameSolver %.1f us per move, %.0f positions searched per move%n",
+                    left, nanos[1] / 1e3 / (REPS * solves), solver.nodes() / (2.0 * REPS * solves));
+        }
+    }
+
+    /**
+     * Return the most tricks a player can be sure of in a determinized
+     * state against the other two, by trying every line of play.
+     */
+    private static int minimax(GameState state, int p)
+    {
+        if(state.over())
+            return state.tricks(p);
+
+        Card[] moves = new Card[Game.DEAL];
+        int n = state.moves(moves);
+        int best = state.active() == p ? -1 : Game.DEAL + 1;
+
+        for(int i = 0; i < n; i++)
+        {
+            GameState next = state.copy();
+            next.advance(moves[i]);
+            int v = minimax(next, p);
+            best = state.active() == p ? Math.max(best, v) : Math.min(best, v);
+        }
+
+        return best;
+    }
+
+    /**
+     * Late deals: with 1 to 4 tricks left, the time to list every deal
+     * consistent with the agent's belief, where there are few enough, and
+     * how many of as many deals drawn at random are different.
+     */
+    private static void deals()
+    {
+        Random rand = new Random(1);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        Card[] moves = new Card[Game.DEAL];
+        long[] places = new long[4];
+        long[] suits = new long[4];
+        int[] unknowns = new int[4];
+
+        for(int left = 1; left <= 4; left++)
+        {
+            int positions = 0;
+            long listed = 0;
+            long distinct = 0;
+            long nanos = 0;
+
+            for(int d = 0; d < 1 << 8; d++)
+            {
+                DealCorpus.deal(rand, seats);
+                int pos = d % 3;
+                List<Card> hand = new ArrayList<>();
+
+                for(Card c : Card.values())
+                    if(seats[c.ordinal()] == pos)
+                        hand.add(c);
+
+                GameState state = new GameState(pos, hand);
+
+                if(pos == MSWAgent.LEADER)
+                    for(int i = 0; i < Game.DISCARDS; i++)
+                        state.discardLow();
+
+                GameState real = state.copy();
+                real.determinize(state, rand);
+
+                for(int i = 3 * (Game.DEAL - left); i > 0; i--)
+                {
+                    Card c = moves[rand.nextInt(real.moves(moves))];
+                    real.advance(c);
+                    state.advance(c);
+                }
+
+                List<int[]> deals = new ArrayList<>();
+                long start = System.nanoTime();
+                int n = state.deals(Raptor.ENUMERATE_DEALS, deals);
+                long mid = System.nanoTime();
+
+                if(n <= 0)
+                    continue;
+
+                GameState deal = state.copy();
+                Set<String> drawn = new HashSet<>();
+
+                for(int i = 0; i < n; i++)
+                {
+                    deal.determinize(state, rand);
+                    long[] hands = new long[3];
+
+                    for(int p = 0; p < 3; p++)
+                    {
+                        long doubt = deal.beliefs[p].pack(places, suits, unknowns, 0);
+                        hands[p] = places[p] & ~doubt;
+                    }
+
+                    drawn.add(Arrays.toString(hands));
+                }
+
+                positions++;
+                listed += n;
+                distinct += drawn.size();
+                nanos += mid - start;
+                sink += n;
+            }
+
+            System.out.printf("deals: %d tricks left, %d positions with %.0f deals each, %.1f us per deal listed, %.0f%% different when drawn as often%n",
+                left, positions, listed / (double)positions, nanos / 1e3 / listed, 100.0 * distinct / listed);
+        }
+    }
+
+    /**
+     * Root parallel search: the searches completed per move by three agents
+     * searching 20 ms a move on 1, 2, 4 and so on up to all cores, over the
+     * same deals. Ideally the count doubles with the threads.
+     */
+    private static void searches()
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+        double single = 0.0;
+
+        for(int threads = 1; ; threads = Math.min(2 * threads, cores))
+        {
+            Metrics metrics = new Metrics();
+
+            for(int g = 0; g < 2; g++)
+            {
+                MossSideWhist game = new MossSideWhist(new Raptor("a", 3 * g, 20, threads, false),
+                    new Raptor("b", 3 * g + 1, 20, threads, false), new Raptor("c", 3 * g + 2, 20, threads, false));
+                game.useMetrics(metrics, new int[] {0, 1, 2});
+                game.seed(g);
+                game.playGame(1);
+            }
+
+            // Searches fall off as the hand empties, so compare medians over the same moves.
+            double median = 0.0;
+
+            for(int a = 0; a < 3; a++)
+                median += metrics.searches(a).percentile(0.5) / 3.0;
+
+            if(threads == 1) single = median;
+
+            System.out.printf("searches: %d threads, median %.0f searches per move, %.2fx one thread%n",
+                threads, median, median / single);
+
+            if(threads == cores) break;
+        }
+    }
+
+    /**
+     * Tree parallel search against root parallel search on all cores: the
+     * iterations run per second on the leader's first move of the same deals,
+     * and how often each picks the same card as a second root parallel search
+     * with another seed, which is as often as two searches can be expected to
+     * agree.
+     */
+    private static void trees()
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int deals = 40;
+        Random rand = new Random(1);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        long[] iterations = new long[2];
+        int[] agree = new int[2];
+
+        for(int d = 0; d < deals; d++)
+        {
+            DealCorpus.deal(rand, seats);
+            List<Card> hand = new ArrayList<>();
+
+            for(Card c : Card.values())
+                if(seats[c.ordinal()] == MSWAgent.LEADER)
+                    hand.add(c);
+
+            Raptor[] agents = {new Raptor("a", d, 20, cores, false), new Raptor("a", d + deals, 20, cores, false),
+                new Raptor("a", d + 2 * deals, 20, cores, true)};
+            Card[] moves = new Card[agents.length];
+
+            for(int a = 0; a < agents.length; a++)
+            {
+                agents[a].setup("b", "c");
+                agents[a].seeHand(hand, MSWAgent.LEADER);
+                agents[a].discard();
+                moves[a] = agents[a].playCard();
+            }
+
+            iterations[0] += agents[0].iterations();
+            iterations[1] += agents[2].iterations();
+
+            if(moves[0] == moves[1]) agree[0]++;
+            if(moves[0] == moves[2]) agree[1]++;
+        }
+
+        double seconds = deals * 0.02;
+        System.out.printf("trees: %d threads, root parallel %.0f iterations/s, tree parallel %.0f iterations/s (%.2fx)%n",
+            cores, iterations[0] / seconds, iterations[1] / seconds, (double)iterations[1] / iterations[0]);
+        System.out.printf("trees: first moves agreeing with another root parallel search: root %d/%d, tree %d/%d%n",
+            agree[0], deals, agree[1], deals);
+    }
+
+    /**
+     * Node stores: one thread growing a tree of four million nodes from the
+     * leader's first move for three seconds, with the nodes on the heap and
+     * off it. Reports the iterations run, the heap in use once the tree is
+     * built, and the time spent collecting garbage meanwhile.
+     */
+    private static void stores()
+    {
+        int nodes = 1 << 22;
+        byte[] seats = new byte[Game.DECK_SIZE];
+        DealCorpus.deal(new Random(1), seats);
+        List<Card> hand = new ArrayList<>();
+
+        for(Card c : Card.values())
+            if(seats[c.ordinal()] == MSWAgent.LEADER)
+                hand.add(c);
+
+        GameState state = new GameState(MSWAgent.LEADER, hand);
+
+        for(int i = 0; i < Game.DISCARDS; i++)
+            state.discardLow();
+
+        NodeStore[] stores = {new HeapNodeStore(nodes), new DirectNodeStore(nodes)};
+        String[] names = {"heap", "direct"};
+
+        for(int s = 0; s < stores.length; s++)
+        {
+            InfoSetTree tree = new InfoSetTree(stores[s], null);
+            Random rand = new Random(2);
+            InfoSetTree.Scratch scratch = new InfoSetTree.Scratch(state);
+            long collecting = collectionTime();
+            long end = System.nanoTime() + 3000000000L;
+            long iterations = 0;
+
+            while(System.nanoTime() < end)
+            {
+                tree.iterate(state, rand, scratch);
+                iterations++;
+            }
+
+            collecting = collectionTime() - collecting;
+            System.gc();
+            Runtime rt = Runtime.getRuntime();
+            System.out.printf("stores: %s, %d iterations/s, %d nodes, %d MB heap in use, %d ms collecting%n",
+                names[s], iterations / 3, tree.size(), (rt.totalMemory() - rt.freeMemory()) >> 20, collecting);
+            sink += tree.visits();
+            stores[s] = null;
+        }
+    }
+
+    /**
+     * Transpositions: trees searched from the leader's first move of the
+     * same deals for a fixed number of iterations, with values kept in the
+     * nodes alone and shared through a transposition table. Reports the
+     * iterations run per second, the table's hit rate and evictions, and how
+     * often the two pick the same card.
+     */
+    private static void transpositions()
+    {
+        int deals = 20;
+        int iterations = 20000;
+        Random rand = new Random(1);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        long[] time = new long[2];
+        int agree = 0;
+        TranspositionTable table = new TranspositionTable(Raptor.TABLE_SLOTS);
+
+        for(int d = 0; d < deals; d++)
+        {
+            DealCorpus.deal(rand, seats);
+            List<Card> hand = new ArrayList<>();
+
+            for(Card c : Card.values())
+                if(seats[c.ordinal()] == MSWAgent.LEADER)
+                    hand.add(c);
+
+            GameState state = new GameState(MSWAgent.LEADER, hand);
+
+            for(int i = 0; i < Game.DISCARDS; i++)
+                state.discardLow();
+
+            table.clear();
+            InfoSetTree[] trees = {new InfoSetTree(Raptor.TREE_NODES, null), new InfoSetTree(Raptor.TREE_NODES, table)};
+            int[] best = new int[trees.length];
+
+            for(int t = 0; t < trees.length; t++)
+            {
+                Random sampler = new Random(d);
+                InfoSetTree.Scratch scratch = new InfoSetTree.Scratch(state);
+                double[] totals = new double[Game.DECK_SIZE];
+                int[] counts = new int[Game.DECK_SIZE];
+                long start = System.nanoTime();
+
+                for(int i = 0; i < iterations; i++)
+                    trees[t].iterate(state, sampler, scratch);
+
+                time[t] += System.nanoTime() - start;
+                trees[t].tally(totals, counts);
+
+                for(int c = 0; c < Game.DECK_SIZE; c++)
+                    if(counts[c] > counts[best[t]])
+                        best[t] = c;
+            }
+
+            if(best[0] == best[1]) agree++;
+        }
+
+        System.out.printf("transpositions: nodes only %.0f iterations/s, with table %.0f iterations/s (%.2fx)%n",
+            deals * iterations / (time[0] / 1e9), deals * iterations / (time[1] / 1e9), (double)time[0] / time[1]);
+        System.out.printf("transpositions: hit rate %.3f of %d probes, %d evictions, first moves agreeing %d/%d%n",
+            table.hitRate(), table.probes(), table.evictions(), agree, deals);
+    }
+
+    /**
+     * Collisions: EndgameSolver on determinized deals with 6 tricks left,
+     * with its table shrunk until positions fight over buckets, against the
+     * full size table, checking the values found don't change, then the
+     * same for searches sharing values through a table, checking how often
+     * they still pick the same first move. Reports the time per move or the
+     * iterations per second, the hit rate and the share of stores that
+     * evicted another position.
+     */
+    private static void collisions()
+    {
+        int deals = 1 << 8;
+        int left = 6;
+        Random rand = new Random(1);
+        GameState[] states = new GameState[deals];
+        Card[] moves = new Card[Game.DEAL];
+
+        for(int d = 0; d < deals; d++)
+        {
+            byte[] seats = new byte[Game.DECK_SIZE];
+            DealCorpus.deal(rand, seats);
+            int pos = d % 3;
+            List<Card> hand = new ArrayList<>();
+
+            for(Card c : Card.values())
+                if(seats[c.ordinal()] == pos)
+                    hand.add(c);
+
+            GameState state = new GameState(pos, hand);
+
+            if(pos == MSWAgent.LEADER)
+                for(int i = 0; i < Game.DISCARDS; i++)
+                    state.discardLow();
+
+            states[d] = state.copy();
+            states[d].determinize(state, rand);
+
+            for(int i = 3 * (Game.DEAL - left) + rand.nextInt(3); i > 0; i--)
+                states[d].advance(moves[rand.nextInt(states[d].moves(moves))]);
+        }
+
+        int[] sizes = {Raptor.SOLVE_SLOTS, 1 << 12, 1 << 10, 1 << 8};
+        int[] values = new int[deals * Game.DEAL];
+
+        for(int size : sizes)
+        {
+            TranspositionTable cache = new TranspositionTable(size);
+            EndgameSolver solver = new EndgameSolver(cache);
+            long nanos = 0;
+            long searched = 0;
+            int solves = 0;
+            int mismatches = 0;
+
+            for(int rep = 0; rep < 2 * REPS; rep++)
+            {
+                // The table is kept from deal to deal, as Raptor keeps it from move to move.
+                cache.clear();
+                long before = solver.nodes();
+                long start = System.nanoTime();
+                solves = 0;
+
+                for(GameState state : states)
+                {
+                    int n = state.moves(moves);
+
+                    for(int i = 0; i < n; i++)
+                    {
+                        solver.load(state);
+                        int v = solver.solve(moves[i].ordinal());
+
+                        if(size == sizes[0]) values[solves] = v;
+                        else if(v != values[solves]) mismatches++;
+
+                        solves++;
+                    }
+                }
+
+                if(rep >= REPS)
+                {
+                    nanos += System.nanoTime() - start;
+                    searched += solver.nodes() - before;
+                }
+            }
+
+            System.out.printf("collisions: endgames, %d slots, %.1f us and %.0f positions per move, hit rate %.3f, %.3f of stores evicting, %d disagreements over %d moves%n",
+                size, nanos / 1e3 / (REPS * solves), (double)searched / (REPS * solves), cache.hitRate(),
+                (double)cache.evictions() / cache.stores(), mismatches, 2 * REPS * solves);
+        }
+
+        // Then trees searched from the leader's first move, sharing values through shrinking tables.
+        int searches = 10;
+        int iterations = 20000;
+        int[] first = new int[searches];
+        sizes = new int[] {Raptor.TABLE_SLOTS, 1 << 14, 1 << 12, 1 << 10};
+
+        for(int size : sizes)
+        {
+            TranspositionTable table = new TranspositionTable(size);
+            Random deal = new Random(2);
+            byte[] seats = new byte[Game.DECK_SIZE];
+            long nanos = 0;
+            int agree = 0;
+
+            for(int d = 0; d < searches; d++)
+            {
+                DealCorpus.deal(deal, seats);
+                List<Card> hand = new ArrayList<>();
+
+                for(Card c : Card.values())
+                    if(seats[c.ordinal()] == MSWAgent.LEADER)
+                        hand.add(c);
+
+                GameState state = new GameState(MSWAgent.LEADER, hand);
+
+                for(int i = 0; i < Game.DISCARDS; i++)
+                    state.discardLow();
+
+                table.clear();
+                InfoSetTree tree = new InfoSetTree(Raptor.TREE_NODES, table);
+                Random sampler = new Random(d);
+                InfoSetTree.Scratch scratch = new InfoSetTree.Scratch(state);
+                double[] totals = new double[Game.DECK_SIZE];
+                int[] counts = new int[Game.DECK_SIZE];
+                int best = 0;
+                long start = System.nanoTime();
+
+                for(int i = 0; i < iterations; i++)
+                    tree.iterate(state, sampler, scratch);
+
+                nanos += System.nanoTime() - start;
+                tree.tally(totals, counts);
+
+                for(int c = 0; c < Game.DECK_SIZE; c++)
+                    if(counts[c] > counts[best])
+                        best = c;
+
+                if(size == sizes[0]) first[d] = best;
+                else if(best == first[d]) agree++;
+            }
+
+            System.out.printf("collisions: searches, %d slots, %.0f iterations/s, hit rate %.3f, %.3f of stores evicting, first moves agreeing %d/%d%n",
+                size, searches * iterations / (nanos / 1e9), table.hitRate(), (double)table.evictions() / table.stores(),
+                size == sizes[0] ? searches : agree, searches);
+        }
+    }
+
+    /** Return the total time the garbage collectors have taken, in milliseconds. */
+    private static long collectionTime()
+    {
+        long total = 0;
+
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(gc.getCollectionTime(), 0);
+
+        return total;
+    }
+
+    /** Print the time per operation of a reference and a current implementation. */
+    private static void report(String name, double legacy, double current)
+    {
+        double ops = (double)REPS * ROUNDS * INPUTS;
+        System.out.printf("%s: reference %.2f ns/op, current %.2f ns/op, speed-up %.2fx%n",
+            name, legacy / ops, current / ops, legacy / current);
+    }
+
+    /** The trick resolution the engine used before the rules tables, as an index into the trick. */
+    private static int legacyWinner(Card lead, Card next, Card last)
+    {
+        if(lead.compareTo(next) < 0 || !legacyFollows(lead, next))
+            return lead.compareTo(last) < 0 || !legacyFollows(lead, last) ? 0 : 2;
+        else
+            return next.compareTo(last) < 0 || !legacyFollows(lead, last) ? 1 : 2;
+    }
+
+    /** Whether a card follows suit or is a trump, as the engine checked it. */
+    private static boolean legacyFollows(Card lead, Card c)
+    {
+        return c.suit == lead.suit || c.suit == Suit.SPADES;
+    }
+}
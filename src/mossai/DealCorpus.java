@@ -0,0 +1,184 @@
+package mossai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * A fixed suite of deals stored in a compact binary file, so that the same
+ * games can be replayed exactly by any number of agent versions.
+ * <p>
+ * The file holds an 8 byte header (a magic number and the number of deals)
+ * followed by one 13 byte record per deal. A record gives the seat of each
+ * card, relative to the leader, in 2 bits per card: card ordinal k is stored
+ * in bits 2*(k%4) and 2*(k%4)+1 of byte k/4. The leader's seat includes the
+ * four extra cards it will discard.
+ * <p>
+ * Files are memory-mapped for reading and deals are decoded with absolute
+ * reads only, so one corpus can be shared by every thread of a tournament.
+ * A file must be exactly as long as its count of deals says, and each deal
+ * is checked as it is decoded, so a damaged corpus fails loudly rather than
+ * dealing impossible hands.
+ */
+final class DealCorpus
+{
+    /** Bytes used to store one deal. */
+    static final int RECORD = Game.DECK_SIZE * 2 / 8;
+
+    /** Bytes before the first deal. */
+    private static final int HEADER = 8;
+
+    /** Identifies a deal corpus file ("MSWD"). */
+    private static final int MAGIC = 0x4D535744;
+
+    /** The file, for reporting a bad deal. */
+    private final File file;
+
+    /** The mapped file. */
+    private final MappedByteBuffer buffer;
+
+    /** The number of deals in the file. */
+    private final int size;
+
+    /** Map an existing corpus file for reading. */
+    DealCorpus(File file) throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a deal corpus");
+
+        this.file = file;
+        size = buffer.getInt(4);
+
+        if(size < 0 || buffer.capacity() != HEADER + (long)size * RECORD)
+            throw new IOException(file + " holds " + buffer.capacity() + " bytes, not the "
+                + (HEADER + (long)size * RECORD) + " its header's count of " + size + " deals needs");
+    }
+
+    /** Return the number of deals in the corpus. */
+    int size() { return size; }
+
+    /**
+     * Decode a deal, filling in the seat (relative to the leader) of each card
+     * by ordinal.
+     * @throws IllegalStateException if the deal doesn't give 20 cards to the leader and 16 to each other seat
+     */
+    void get(int deal, byte[] seats)
+    {
+        unpack(buffer, HEADER + deal * RECORD, seats);
+        int leader = 0;
+        int left = 0;
+        int right = 0;
+
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+        {
+            if(seats[c] == MSWAgent.LEADER) leader++;
+            else if(seats[c] == MSWAgent.LEFT) left++;
+            else if(seats[c] == MSWAgent.RIGHT) right++;
+        }
+
+        // Any card left over has the unused seat code 3.
+        if(leader != Game.DEAL + Game.DISCARDS || left != Game.DEAL || right != Game.DEAL)
+            throw new IllegalStateException("Deal " + deal + " of " + file + " gives the leader, left and right "
+                + leader + ", " + left + " and " + right + " cards, not 20, 16 and 16");
+    }
+
+    /** Pack the seat of each card into a record at a position in a buffer. */
+    static void pack(byte[] seats, ByteBuffer out, int at)
+    {
+        for(int b = 0; b < RECORD; b++)
+        {
+            int packed = 0;
+
+            for(int k = 0; k < 4; k++)
+                packed |= seats[4 * b + k] << (2 * k);
+
+            out.put(at + b, (byte)packed);
+        }
+    }
+
+    /** Unpack the seat of each card from a record at a position in a buffer. */
+    static void unpack(ByteBuffer in, int at, byte[] seats)
+    {
+        for(int b = 0; b < RECORD; b++)
+        {
+            int packed = in.get(at + b);
+
+            for(int k = 0; k < 4; k++)
+                seats[4 * b + k] = (byte)((packed >>> (2 * k)) & 3);
+        }
+    }
+
+    /**
+     * Deal a random hand, filling in the seat (relative to the leader) of each
+     * card by ordinal. Cards are drawn in the order the engine has always
+     * dealt them: four to the leader, then one each to the left, right and
+     * leader until the deck is empty.
+     */
+    static void deal(Random rand, byte[] seats)
+    {
+        Card[] deck = Card.values();
+        int remaining = deck.length;
+
+        for(int i = 0; i < 4; i++)
+            remaining = draw(rand, deck, remaining, seats, MSWAgent.LEADER);
+
+        for(int i = 0; i < 16; i++)
+        {
+            remaining = draw(rand, deck, remaining, seats, MSWAgent.LEFT);
+            remaining = draw(rand, deck, remaining, seats, MSWAgent.RIGHT);
+            remaining = draw(rand, deck, remaining, seats, MSWAgent.LEADER);
+        }
+    }
+
+    /** Remove a random card from the deck, closing the gap, and give it to a seat. */
+    private static int draw(Random rand, Card[] deck, int remaining, byte[] seats, int seat)
+    {
+        int i = rand.nextInt(remaining);
+        seats[deck[i].ordinal()] = (byte)seat;
+        System.arraycopy(deck, i + 1, deck, i, remaining - i - 1);
+        return remaining - 1;
+    }
+
+    /** Write a corpus of random deals generated from a seed. */
+    static void write(File file, int deals, long seed) throws IOException
+    {
+        Random rand = new Random(seed);
+        byte[] seats = new byte[Game.DECK_SIZE];
+        ByteBuffer out = ByteBuffer.allocate(HEADER + deals * RECORD);
+        out.putInt(MAGIC).putInt(deals);
+
+        for(int d = 0; d < deals; d++)
+        {
+            deal(rand, seats);
+            pack(seats, out, HEADER + d * RECORD);
+        }
+
+        out.rewind();
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel())
+        {
+            channel.truncate(0);
+
+            while(out.hasRemaining())
+                channel.write(out);
+        }
+    }
+
+    /**
+     * Generate a corpus file.
+     * @param args the file to write, the number of deals and the seed
+     */
+    public static void main(String[] args) throws IOException
+    {
+        write(new File(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]));
+    }
+}
@@ -0,0 +1,147 @@
+package mossai;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A node store in direct buffers, off the heap, so a tree of tens of
+ * millions of nodes adds nothing for the collector to trace and the heap
+ * stays the same size however large the tree grows. Meant for long
+ * analysis searches; the memory is returned when the store is collected.
+ * <p>
+ * Each node is a fixed size record:
+ * <pre>
+ *  0  8 bytes  visits
+ *  8  8 bytes  times available
+ * 16  8 bytes  reward
+ * 24  4 bytes  parent
+ * 28  4 bytes  next sibling
+ * 32  4 bytes  first child
+ * 36  1 byte   move
+ * 37  1 byte   mover
+ * </pre>
+ * Records are split over buffers of a fixed number of nodes, since one
+ * buffer holds at most 2 GB. Buffers have no atomic operations before Java
+ * 9, so updates, and reads of the child links, lock one of a set of stripes
+ * chosen by node; reads of the statistics alone may be slightly stale.
+ */
+final class DirectNodeStore implements NodeStore
+{
+    /** Bytes per node. */
+    private static final int RECORD = 40;
+
+    /** Offsets of the fields within a record. */
+    private static final int VISITS = 0;
+    private static final int AVAILABLE = 8;
+    private static final int REWARD = 16;
+    private static final int PARENT = 24;
+    private static final int SIBLING = 28;
+    private static final int FIRST_CHILD = 32;
+    private static final int MOVE = 36;
+    private static final int MOVER = 37;
+
+    /** Nodes per buffer, as a power of two. */
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    /** The number of locks nodes are spread over. */
+    private static final int STRIPES = 1 << 8;
+
+    private final int capacity;
+    private final ByteBuffer[] chunks;
+    private final Object[] stripes = new Object[STRIPES];
+
+    DirectNodeStore(int capacity)
+    {
+        this.capacity = capacity;
+        chunks = new ByteBuffer[(capacity + CHUNK - 1) >>> CHUNK_BITS];
+
+        for(int i = 0; i < chunks.length; i++)
+        {
+            int nodes = Math.min(CHUNK, capacity - (i << CHUNK_BITS));
+            chunks[i] = ByteBuffer.allocateDirect(nodes * RECORD).order(ByteOrder.nativeOrder());
+        }
+
+        for(int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
+    }
+
+    @Override public int capacity() { return capacity; }
+
+    @Override
+    public void init(int node, int up, int card, int by, long availability)
+    {
+        ByteBuffer b = chunk(node);
+        int at = offset(node);
+
+        synchronized(stripe(node))
+        {
+            b.putLong(at + VISITS, 0L);
+            b.putLong(at + AVAILABLE, availability);
+            b.putLong(at + REWARD, 0L);
+            b.putInt(at + PARENT, up);
+            b.putInt(at + SIBLING, -1);
+            b.putInt(at + FIRST_CHILD, -1);
+            b.put(at + MOVE, (byte)card);
+            b.put(at + MOVER, (byte)by);
+        }
+    }
+
+    @Override public int move(int node) { return chunk(node).get(offset(node) + MOVE); }
+    @Override public int mover(int node) { return chunk(node).get(offset(node) + MOVER); }
+    @Override public int parent(int node) { return chunk(node).getInt(offset(node) + PARENT); }
+    @Override public void setParent(int node, int up) { chunk(node).putInt(offset(node) + PARENT, up); }
+    @Override public int sibling(int node) { return chunk(node).getInt(offset(node) + SIBLING); }
+    @Override public void setSibling(int node, int next) { chunk(node).putInt(offset(node) + SIBLING, next); }
+    @Override public long visits(int node) { return chunk(node).getLong(offset(node) + VISITS); }
+    @Override public long available(int node) { return chunk(node).getLong(offset(node) + AVAILABLE); }
+    @Override public long reward(int node) { return chunk(node).getLong(offset(node) + REWARD); }
+    @Override public long addVisits(int node, long delta) { return add(node, VISITS, delta); }
+    @Override public long addAvailable(int node, long delta) { return add(node, AVAILABLE, delta); }
+    @Override public void addReward(int node, long delta) { add(node, REWARD, delta); }
+
+    @Override
+    public int firstChild(int node)
+    {
+        synchronized(stripe(node))
+        {
+            return chunk(node).getInt(offset(node) + FIRST_CHILD);
+        }
+    }
+
+    @Override
+    public boolean casFirstChild(int node, int expect, int child)
+    {
+        ByteBuffer b = chunk(node);
+        int at = offset(node) + FIRST_CHILD;
+
+        synchronized(stripe(node))
+        {
+            if(b.getInt(at) != expect)
+                return false;
+
+            b.putInt(at, child);
+            return true;
+        }
+    }
+
+    /** Add to one of a node's counts and return the new value. */
+    private long add(int node, int field, long delta)
+    {
+        ByteBuffer b = chunk(node);
+        int at = offset(node) + field;
+
+        synchronized(stripe(node))
+        {
+            long v = b.getLong(at) + delta;
+            b.putLong(at, v);
+            return v;
+        }
+    }
+
+    private ByteBuffer chunk(int node) { return chunks[node >>> CHUNK_BITS]; }
+
+    private static int offset(int node) { return (node & (CHUNK - 1)) * RECORD; }
+
+    private Object stripe(int node) { return stripes[node & (STRIPES - 1)]; }
+}
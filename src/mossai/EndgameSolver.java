@@ -0,0 +1,296 @@
+package mossai;
+
+/**
+ * Solves the rest of a determinized hand exactly, with every hand known,
+ * for the last few tricks, where greedy rollouts are both slower and less
+ * accurate than working out the best play. The player the hand is solved
+ * for takes as many tricks as they can and the other two play together to
+ * stop them, so the value found is the most tricks the player can be sure
+ * of, however the others play.
+ * <p>
+ * The search is alpha-beta over hands kept as longs, as in Playout. Cards
+ * of a hand with no card still in play ranked between them are equivalent,
+ * so only the highest of each such run is tried. Winning cards are tried
+ * first, the cheapest first. Values of positions at the start of a trick
+ * are kept as bounds in a transposition table, keyed by who holds which
+ * card, who leads and who the hand is solved for, which hold whatever
+ * order the tricks before were played in and from deal to deal.
+ */
+final class EndgameSolver
+{
+    /** Bits of a value in the table given to each of its bounds. */
+    private static final int BOUND = 8;
+
+    /** The cards each player holds. */
+    private final long[] hands = new long[3];
+
+    /** The ordinal of the card each player played to the trick under way, if any have. */
+    private final int[] table = new int[3];
+
+    /** The tricks each player had taken when the hand was loaded. */
+    private final int[] taken = new int[3];
+
+    /** The hash of who holds which card. */
+    private long held;
+
+    private int leader;
+    private int turn;
+
+    /** The number of cards on the table. */
+    private int seat;
+
+    /** The number of tricks left to finish, counting the one under way. */
+    private int left;
+
+    /** The player the hand is being solved for. */
+    private int me;
+
+    /** The bounds found on the values of positions, which may be shared by several solvers. */
+    private final TranspositionTable cache;
+
+    /** The moves to try and the order to try them in, at each depth. */
+    private final int[][] moves = new int[3 * Game.DEAL][Game.DEAL];
+    private final int[][] priorities = new int[3 * Game.DEAL][Game.DEAL];
+
+    /** Positions searched since the solver was made. */
+    private long nodes;
+
+    /** Working space for loading a state. */
+    private final long[] packedPlaces = new long[4];
+    private final long[] packedSuits = new long[4];
+    private final int[] packedUnknowns = new int[4];
+
+    EndgameSolver(TranspositionTable cache) { this.cache = cache; }
+
+    /** Overwrite the solver's hand with a determinized state, in which every player knows their own hand. */
+    void load(GameState from)
+    {
+        leader = from.order[0];
+        turn = from.active();
+        held = 0L;
+        left = Game.DEAL;
+        seat = 0;
+
+        for(int p = 0; p < 3; p++)
+        {
+            long doubt = from.beliefs[p].pack(packedPlaces, packedSuits, packedUnknowns, 0);
+            hands[p] = packedPlaces[p] & ~doubt;
+            table[p] = from.table[p] == null ? -1 : from.table[p].ordinal();
+            taken[p] = from.tricks(p);
+            left -= taken[p];
+
+            if(table[p] >= 0)
+                seat++;
+
+            for(long m = hands[p]; m != 0; m &= m - 1)
+                held ^= Zobrist.HELD[p][Long.numberOfTrailingZeros(m)];
+        }
+    }
+
+    /**
+     * Return the most tricks in the hand the player to move can be sure of
+     * taking if they play a card, which must be legal, counting those they
+     * have already taken.
+     */
+    int solve(int c)
+    {
+        me = turn;
+        int lower = 0;
+        int upper = left;
+        int guess = left;
+
+        // Narrow the value down by searches that only ask whether it is
+        // under a bound, which cut off far more than a search for the value
+        // itself, and share what they find through the table.
+        while(lower < upper)
+        {
+            int beta = guess == lower ? guess + 1 : guess;
+            guess = after(c, beta - 1, beta);
+
+            if(guess < beta) upper = guess;
+            else lower = guess;
+        }
+
+        return taken[me] + lower;
+    }
+
+    /** Return the number of positions searched since the solver was made. */
+    long nodes() { return nodes; }
+
+    /**
+     * Return the tricks the player solved for takes from the trick under way
+     * on, if the value is within the window; otherwise a bound on it beyond
+     * the window's end, as alpha-beta search does.
+     */
+    private int search(int alpha, int beta)
+    {
+        if(alpha >= left) return left;
+        if(beta <= 0) return 0;
+
+        if(seat == 0)
+        {
+            if(left == 0)
+                return 0;
+
+            long bounds = cache.probe(key());
+
+            if(bounds != TranspositionTable.MISS)
+            {
+                int lower = (int)(bounds >>> BOUND);
+                int upper = (int)(bounds & ((1 << BOUND) - 1));
+
+                if(lower >= beta || lower == upper) return lower;
+                if(upper <= alpha) return upper;
+
+                alpha = Math.max(alpha, lower);
+                beta = Math.min(beta, upper);
+            }
+        }
+
+        nodes++;
+        int depth = 3 * (left - 1) + seat;
+        int n = generate(moves[depth], priorities[depth]);
+        boolean mine = turn == me;
+        int best = mine ? -1 : left + 1;
+        int a = alpha;
+        int b = beta;
+
+        for(int i = 0; i < n && a < b; i++)
+        {
+            int v = after(moves[depth][i], a, b);
+
+            if(mine)
+            {
+                best = Math.max(best, v);
+                a = Math.max(a, v);
+            }
+            else
+            {
+                best = Math.min(best, v);
+                b = Math.min(b, v);
+            }
+        }
+
+        if(seat == 0)
+        {
+            int lower = best >= beta ? best : best > alpha ? best : 0;
+            int upper = best <= alpha ? best : best < beta ? best : left;
+            cache.store(key(), (long)lower << BOUND | upper, left);
+        }
+
+        return best;
+    }
+
+    /** Play a card for the player to move, search on, and take it back, returning the value found. */
+    private int after(int c, int alpha, int beta)
+    {
+        int p = turn;
+        int was = table[p];
+        long bit = 1L << c;
+        int v;
+
+        hands[p] &= ~bit;
+        held ^= Zobrist.HELD[p][c];
+        table[p] = c;
+
+        if(seat < 2)
+        {
+            seat++;
+            turn = (p + 1) % 3;
+            v = search(alpha, beta);
+            seat--;
+        }
+        else
+        {
+            // The trick is over: the winner takes it and leads the next.
+            int lead = leader;
+            int win = (lead + Rules.winner(table[lead], table[(lead + 1) % 3], table[(lead + 2) % 3])) % 3;
+            int mine = win == me ? 1 : 0;
+
+            seat = 0;
+            left--;
+            leader = turn = win;
+            v = mine + search(alpha - mine, beta - mine);
+            left++;
+            seat = 2;
+            leader = lead;
+        }
+
+        turn = p;
+        table[p] = was;
+        held ^= Zobrist.HELD[p][c];
+        hands[p] |= bit;
+        return v;
+    }
+
+    /**
+     * Fill an array with the legal moves of the player to move worth trying,
+     * best first, and return how many there are: on the lead the highest
+     * cards first, and following the cheapest card that takes the trick
+     * first, then the cheapest that doesn't, or the other way round for the
+     * last player if their partner is winning.
+     */
+    private int generate(int[] into, int[] priority)
+    {
+        long hand = hands[turn];
+        long rest = hands[0] | hands[1] | hands[2];
+        int suit = -1;
+        int winning = -1;
+        boolean duck = false;
+
+        if(seat > 0)
+        {
+            winning = table[leader];
+            suit = Rules.SUIT_OF[winning];
+            rest |= 1L << winning;
+
+            if(seat == 2)
+            {
+                int second = table[(leader + 1) % 3];
+                rest |= 1L << second;
+
+                if(Rules.beats(suit, second, winning))
+                    winning = second;
+
+                // The last player needn't take a trick from the other player playing against the one solved for.
+                duck = turn != me && (winning == second ? (leader + 1) % 3 : leader) != me;
+            }
+
+            hand = Rules.legal(hand, suit);
+        }
+
+        int n = 0;
+
+        for(long m = hand; m != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+
+            // Skip a card if the next card up in play is in the same hand.
+            long above = rest & Rules.SUITS[Rules.SUIT_OF[c]] & ((1L << c) - 1);
+
+            if(above != 0 && (hands[turn] & Long.highestOneBit(above)) != 0)
+                continue;
+
+            int rank = Game.SUIT_SIZE - 1 - c % Game.SUIT_SIZE;
+            int key = winning < 0 ? rank
+                : Rules.beats(suit, c, winning) != duck ? 2 * Game.SUIT_SIZE - rank : Game.SUIT_SIZE - rank;
+
+            // Insertion sort by priority, highest first.
+            int i = n++;
+
+            for(; i > 0 && priority[i - 1] < key; i--)
+            {
+                into[i] = into[i - 1];
+                priority[i] = priority[i - 1];
+            }
+
+            into[i] = c;
+            priority[i] = key;
+        }
+
+        return n;
+    }
+
+    /** Return the hash of the position at the start of a trick. */
+    private long key() { return held ^ Zobrist.LEADER[leader] ^ Zobrist.MOVER[me]; }
+}
@@ -1,10 +1,10 @@
 package mossai;
 
-import java.util.HashMap;
-
 /**
  * Collection of utility data and methods relating to the structure and rules of
  * Moss Side Whist.
+ * All lookups go through primitive tables keyed by ordinal, so none of them
+ * hash or box.
  * @author Dylan Johnson
  */
 class Game
@@ -25,54 +25,65 @@ class Game
 	static final int NUM_SUITS = 4;
 	static final int TRUMP_INT;
     
-    private static final HashMap<Suit, Integer> SUIT_MAP;
-    private static final HashMap<Card, Integer> CARD_MAP;
+	/*
+	 * A card's index is SUIT_SIZE * (its suit's index) + (its rank's index),
+	 * so the cards of a suit are contiguous and ascend in rank. A suit's index
+	 * is its ordinal.
+	 */
+	
+	/** Card indices, by card ordinal. */
+    private static final byte[] CARD_INDEX;
+	
+	/** Suit indices, by card ordinal. */
+	private static final byte[] CARD_SUIT;
+	
+	/** Cards, by card index. */
     private static final Card[] CARD_ARRAY;
+	
+	/** Suits, by suit index. */
 	private static final Suit[] SUIT_ARRAY;
     
     static
     {
-		SUIT_MAP = new HashMap(4);
-		SUIT_ARRAY = new Suit[4];
-		int i = 0;
-		
-		for(Suit s : Suit.values())
-		{
-			SUIT_MAP.put(s, i);
-			SUIT_ARRAY[i] = s;
-			i++;
-		}
-		
-		TRUMP_INT = SUIT_MAP.get(TRUMP);
+		SUIT_ARRAY = Suit.values();
+		TRUMP_INT = TRUMP.ordinal();
         
-        CARD_MAP = new HashMap(DECK_SIZE);
+        CARD_INDEX = new byte[DECK_SIZE];
+        CARD_SUIT = new byte[DECK_SIZE];
         CARD_ARRAY = new Card[DECK_SIZE];
         
         for(Card c : Card.values())
         {
-            i = SUIT_SIZE * SUIT_MAP.get(c.suit) + c.rank - 2;
-            CARD_MAP.put(c, i);
+            int i = SUIT_SIZE * c.suit.ordinal() + c.rank - 2;
+            CARD_INDEX[c.ordinal()] = (byte)i;
+            CARD_SUIT[c.ordinal()] = (byte)c.suit.ordinal();
             CARD_ARRAY[i] = c;
         }
     }
     
     /** Take a suit, return an index for it. */
-    static int suitToInt(Suit s) { return SUIT_MAP.get(s); }
+    static int suitToInt(Suit s) { return s.ordinal(); }
 	
 	/** Take a suit index, return it corresponding suit. */
 	static Suit suitIntToSuit(int s) { return SUIT_ARRAY[s]; }
     
     /** Take a suit, return the index of its lowest card. */
-    static int suitBegins(Suit s) { return SUIT_MAP.get(s) * SUIT_SIZE; }
+    static int suitBegins(Suit s) { return s.ordinal() * SUIT_SIZE; }
     
     /** Take a suit and return the index of its highest card. */
-    static int suitEnds(Suit s) { return SUIT_MAP.get(s) * SUIT_SIZE + SUIT_SIZE - 1; }
+    static int suitEnds(Suit s) { return s.ordinal() * SUIT_SIZE + SUIT_SIZE - 1; }
+    
+    /** Take a suit index, return the index of its lowest card. */
+    static int suitIntBegins(int s) { return s * SUIT_SIZE; }
+    
+    /** Take a suit index and return the index of its highest card. */
+    static int suitIntEnds(int s) { return s * SUIT_SIZE + SUIT_SIZE - 1; }
     
     /** Take a card, return its index. */
-    static int cardToInt(Card c) { return CARD_MAP.get(c); }
+    static int cardToInt(Card c) { return CARD_INDEX[c.ordinal()]; }
     
     /** Take a card, return its suit's index. */
-    static int cardToSuit(Card c) { return SUIT_MAP.get(c.suit); }
+    static int cardToSuit(Card c) { return CARD_SUIT[c.ordinal()]; }
     
     /** Take a card, return its rank's index. */
     static int cardToRank(Card c) { return c.rank - 2; }
@@ -0,0 +1,215 @@
+package mossai;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only binary log of hands, written through memory-mapped regions
+ * of the file so that logging costs the game loop little more than a copy.
+ * <p>
+ * The file holds a 16 byte header (a magic number, the record size and the
+ * number of records) followed by one fixed-size record per hand:
+ * <pre>
+ *  0   3 bytes  the ids of the agents in the leader, left and right positions
+ *  3   1 byte   reserved
+ *  4  13 bytes  the deal, packed as in DealCorpus
+ * 17   4 bytes  the ordinals of the cards the leader discarded
+ * 21  48 bytes  the ordinals of the cards played, in order of play
+ * 69  16 bytes  the position (relative to the leader) that won each trick
+ * 85   3 bytes  the hand scores of the leader, left and right positions
+ * </pre>
+ * Agent names are kept beside the log, in a text file with one name per
+ * line, so an agent's id is its line number.
+ */
+final class GameLog implements Closeable
+{
+    /** Bytes per hand. */
+    static final int RECORD = 88;
+
+    /** Offsets of the fields within a record. */
+    static final int IDS = 0;
+    static final int DEAL = 4;
+    static final int DISCARDS = 17;
+    static final int PLAYS = 21;
+    static final int WINNERS = 69;
+    static final int SCORES = 85;
+
+    /** Bytes before the first record. */
+    static final int HEADER = 16;
+
+    /** Identifies a game log file ("MSWL"). */
+    static final int MAGIC = 0x4D53574C;
+
+    /** Records mapped at a time. */
+    private static final int REGION = 1 << 19;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    /** The header, kept mapped so the record count stays current. */
+    private final MappedByteBuffer header;
+
+    /** The region of the file the next record goes in. */
+    private MappedByteBuffer region;
+
+    /** Records in the log. */
+    private long count;
+
+    /** Working space for the hand scores of each position. */
+    private final int[] tricks = new int[3];
+
+    /** Agent names, by id. */
+    private final List<String> names = new ArrayList<>();
+
+    /** Open a log for appending, creating it if it doesn't exist. */
+    GameLog(File file) throws IOException
+    {
+        this.file = file;
+        boolean exists = file.length() >= HEADER;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+
+        if(exists)
+        {
+            if(header.getInt(0) != MAGIC || header.getInt(4) != RECORD)
+            {
+                close();
+                throw new IOException(file + " is not a game log");
+            }
+
+            count = header.getLong(8);
+            File names = namesFile(file);
+
+            if(names.exists())
+                this.names.addAll(readNames(names));
+        }
+        else
+        {
+            // Names left from an earlier log of the same name would give the new ids the wrong lines.
+            File names = namesFile(file);
+
+            if(names.exists() && !names.delete())
+            {
+                close();
+                throw new IOException("Can't remove the old names " + names);
+            }
+
+            header.putInt(0, MAGIC);
+            header.putInt(4, RECORD);
+            header.putLong(8, 0L);
+        }
+    }
+
+    /** Return the file beside a log that holds its agents' names. */
+    static File namesFile(File log) { return new File(log.getPath() + ".names"); }
+
+    /** Read the names of a log's agents, by id. */
+    static List<String> readNames(File names) throws IOException
+    {
+        List<String> list = new ArrayList<>();
+
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(names), StandardCharsets.UTF_8)))
+        {
+            for(String line = in.readLine(); line != null; line = in.readLine())
+                list.add(line);
+        }
+
+        return list;
+    }
+
+    /** Return the id of an agent's name, adding it to the log if it is new. */
+    synchronized int id(String name) throws IOException
+    {
+        int id = names.indexOf(name);
+
+        if(id >= 0) return id;
+        else if(names.size() == 256) throw new IOException("A game log holds at most 256 agents");
+
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(namesFile(file), true), StandardCharsets.UTF_8))
+        {
+            out.write(name + "\n");
+        }
+
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    /** Return the number of hands in the log. */
+    long size() { return count; }
+
+    /**
+     * Append a hand.
+     * @param ids the agent ids of the leader, left and right positions
+     * @param deal the seat of each card relative to the leader, by ordinal
+     * @param discards the ordinals of the four discarded cards
+     * @param plays the ordinals of the 48 cards played
+     * @param winners the position that won each of the 16 tricks
+     */
+    void append(int[] ids, byte[] deal, byte[] discards, byte[] plays, byte[] winners) throws IOException
+    {
+        int slot = (int)(count % REGION);
+
+        // Map a region at a time, including when reopening part way through one.
+        if(slot == 0 || region == null)
+            region = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + (count - slot) * RECORD, (long)REGION * RECORD);
+
+        int base = slot * RECORD;
+
+        for(int p = 0; p < 3; p++)
+            region.put(base + IDS + p, (byte)ids[p]);
+
+        DealCorpus.pack(deal, region, base + DEAL);
+
+        tricks[Game.LEADER] = -8;
+        tricks[Game.LEFT] = -4;
+        tricks[Game.RIGHT] = -4;
+
+        for(int i = 0; i < Game.DISCARDS; i++)
+            region.put(base + DISCARDS + i, discards[i]);
+
+        for(int i = 0; i < 3 * Game.DEAL; i++)
+            region.put(base + PLAYS + i, plays[i]);
+
+        for(int i = 0; i < Game.DEAL; i++)
+        {
+            region.put(base + WINNERS + i, winners[i]);
+            tricks[winners[i]]++;
+        }
+
+        for(int p = 0; p < 3; p++)
+            region.put(base + SCORES + p, (byte)tricks[p]);
+
+        header.putLong(8, ++count);
+    }
+
+    /** Close the log, trimming the space mapped ahead of the last record. */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if(header.getInt(0) == MAGIC)
+                channel.truncate(HEADER + count * RECORD);
+        }
+        finally
+        {
+            region = null;
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package mossai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs aggregations over the hands in any number of game logs without
+ * reading them onto the heap. Each log is split into segments of a fixed
+ * number of records, every segment is mapped read-only and scanned by a
+ * worker thread into an accumulator of its own, and the accumulators are
+ * merged in file and segment order, so results don't depend on the number
+ * of threads.
+ * <p>
+ * Hands are presented through a single reusable view per segment that
+ * decodes fields straight from the mapped file as they are asked for, so
+ * scanning allocates nothing per hand. Each hand is checked against the
+ * rules as it is reached, so a corrupt record stops the scan, naming it,
+ * rather than skewing the results.
+ * <p>
+ * Each log numbers its agents in its own names file, so ids are mapped
+ * through it as they are read, to ids shared by every log read.
+ */
+final class GameLogReader
+{
+    /** Records scanned as one task. */
+    private static final int SEGMENT = 1 << 18;
+
+    /** Names of the positions, for reporting. */
+    private static final String[] POSITIONS = {"leader", "left", "right"};
+
+    /**
+     * A question to ask of every hand. Each segment gets an accumulator of
+     * its own, so none of the methods need to be thread safe.
+     * @param <A> the type of the accumulator
+     */
+    interface Aggregation<A>
+    {
+        /** Return a new, empty accumulator. */
+        A start();
+
+        /** Add a hand to an accumulator. The hand is only valid during the call. */
+        void add(A into, Hand hand);
+
+        /** Add the contents of another accumulator to one. */
+        void merge(A into, A other);
+    }
+
+    /** The logs being read. */
+    private final List<File> files = new ArrayList<>();
+
+    /** The names of the agents in every log, by shared id. */
+    private final List<String> names = new ArrayList<>();
+
+    /** The shared id of each agent id in each log. */
+    private final List<int[]> ids = new ArrayList<>();
+
+    /** The number of hands in each log. */
+    private final List<Long> counts = new ArrayList<>();
+
+    /**
+     * Open some logs for reading. A directory stands for every log in it.
+     * Only the hands logged by the time this returns are read.
+     */
+    GameLogReader(File... logs) throws IOException
+    {
+        for(File log : logs)
+        {
+            if(log.isDirectory())
+            {
+                File[] inside = log.listFiles((dir, name) -> name.endsWith(".bin"));
+                List<File> sorted = new ArrayList<>();
+
+                if(inside != null)
+                    Collections.addAll(sorted, inside);
+
+                Collections.sort(sorted);
+
+                for(File f : sorted)
+                    open(f);
+            }
+            else
+            {
+                open(log);
+            }
+        }
+    }
+
+    /** Check a log's header and note its size and names. */
+    private void open(File log) throws IOException
+    {
+        long count;
+
+        try(RandomAccessFile raf = new RandomAccessFile(log, "r"); FileChannel channel = raf.getChannel())
+        {
+            if(channel.size() < GameLog.HEADER)
+                throw new IOException(log + " is not a game log");
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, GameLog.HEADER);
+
+            if(header.getInt(0) != GameLog.MAGIC || header.getInt(4) != GameLog.RECORD)
+                throw new IOException(log + " is not a game log");
+
+            // A log still being written may be mapped ahead of its last record.
+            count = Math.min(header.getLong(8), (channel.size() - GameLog.HEADER) / GameLog.RECORD);
+        }
+
+        File list = GameLog.namesFile(log);
+        List<String> own = list.exists() ? GameLog.readNames(list) : Collections.<String>emptyList();
+        int[] shared = new int[256];
+
+        // Agents missing from the names file go by their id, as Tournament numbers its entrants.
+        for(int id = 0; id < shared.length; id++)
+        {
+            String name = id < own.size() ? own.get(id) : Integer.toString(id);
+            int at = names.indexOf(name);
+
+            if(at < 0)
+            {
+                at = names.size();
+                names.add(name);
+            }
+
+            shared[id] = at;
+        }
+
+        files.add(log);
+        ids.add(shared);
+        counts.add(count);
+    }
+
+    /** Return the number of agents in the logs, counting any with no name. */
+    int agents() { return names.size(); }
+
+    /** Return the total number of hands in the logs. */
+    long size()
+    {
+        long total = 0;
+
+        for(long count : counts)
+            total += count;
+
+        return total;
+    }
+
+    /**
+     * Run an aggregation over every hand, sharing the segments between a
+     * number of threads.
+     */
+    <A> A aggregate(Aggregation<A> aggregation, int threads) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<A>> segments = new ArrayList<>();
+
+        for(int f = 0; f < files.size(); f++)
+        {
+            for(long from = 0; from < counts.get(f); from += SEGMENT)
+            {
+                int file = f;
+                long first = from;
+                int length = (int)Math.min(SEGMENT, counts.get(f) - from);
+                segments.add(pool.submit(() -> scan(aggregation, file, first, length)));
+            }
+        }
+
+        A total = aggregation.start();
+
+        try
+        {
+            for(Future<A> segment : segments)
+                aggregation.merge(total, segment.get());
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scan interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            else throw new IllegalStateException("A scan failed", e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return total;
+    }
+
+    /** Map a run of records and add each to a new accumulator. */
+    private <A> A scan(Aggregation<A> aggregation, int file, long first, int length) throws IOException
+    {
+        A into = aggregation.start();
+        Hand hand;
+
+        try(RandomAccessFile raf = new RandomAccessFile(files.get(file), "r"); FileChannel channel = raf.getChannel())
+        {
+            hand = new Hand(channel.map(FileChannel.MapMode.READ_ONLY, GameLog.HEADER + first * GameLog.RECORD,
+                (long)length * GameLog.RECORD), ids.get(file), names, files.get(file), first);
+        }
+
+        for(int r = 0; r < length; r++)
+        {
+            hand.moveTo(r);
+            aggregation.add(into, hand);
+        }
+
+        return into;
+    }
+
+    /**
+     * A view of one hand in a mapped log. Positions are relative to the
+     * leader, as in Game, and cards are returned as the Card constants.
+     */
+    static final class Hand
+    {
+        private final ByteBuffer buffer;
+        private final int[] ids;
+        private final List<String> names;
+        private int base;
+
+        /** The log, and the number of its first record mapped, for reporting a bad record. */
+        private final File file;
+        private final long first;
+
+        /** Working space for checking a hand: the cards each position holds, its score and the trick under way. */
+        private final long[] held = new long[3];
+        private final int[] tricks = new int[3];
+        private final int[] cards = new int[3];
+
+        private Hand(ByteBuffer buffer, int[] ids, List<String> names, File file, long first)
+        {
+            this.buffer = buffer;
+            this.ids = ids;
+            this.names = names;
+            this.file = file;
+            this.first = first;
+        }
+
+        /** Move to a record, checking that it is a legal hand. */
+        private void moveTo(int record) throws IOException
+        {
+            base = record * GameLog.RECORD;
+            String problem = check();
+
+            if(problem != null)
+                throw new IOException(file + ", hand " + (first + record) + ": " + problem);
+        }
+
+        /**
+         * Replay the hand by the rules, returning what is wrong with it, or
+         * null if nothing is: every card dealt to a position, 20 to the
+         * leader and 16 to each other, the leader's discards its own, every
+         * card played from the hand of the position whose turn it was and
+         * following suit if it could, each trick won by the position that
+         * played the card that takes it, and the scores those tricks make.
+         */
+        private String check()
+        {
+            for(int p = 0; p < 3; p++)
+                held[p] = dealt(p);
+
+            if(Long.bitCount(held[Game.LEADER]) != Game.DEAL + Game.DISCARDS
+                || Long.bitCount(held[Game.LEFT]) != Game.DEAL || Long.bitCount(held[Game.RIGHT]) != Game.DEAL)
+                return "the deal is not 20, 16 and 16 cards";
+
+            for(int i = 0; i < Game.DISCARDS; i++)
+            {
+                int c = buffer.get(base + GameLog.DISCARDS + i) & 0xFF;
+
+                if(c >= Game.DECK_SIZE || (held[Game.LEADER] & 1L << c) == 0)
+                    return "discard " + i + " is not one of the leader's cards";
+
+                held[Game.LEADER] &= ~(1L << c);
+            }
+
+            int lead = Game.LEADER;
+            tricks[Game.LEADER] = -8;
+            tricks[Game.LEFT] = -4;
+            tricks[Game.RIGHT] = -4;
+
+            for(int t = 0; t < Game.DEAL; t++)
+            {
+                for(int i = 0; i < 3; i++)
+                {
+                    int p = (lead + i) % 3;
+                    int c = buffer.get(base + GameLog.PLAYS + 3 * t + i) & 0xFF;
+
+                    if(c >= Game.DECK_SIZE || (held[p] & 1L << c) == 0)
+                        return "card " + (3 * t + i) + " is not in the hand of the position to play";
+
+                    if(i > 0 && (Rules.legal(held[p], Rules.SUIT_OF[cards[0]]) & 1L << c) == 0)
+                        return "card " + (3 * t + i) + " does not follow suit";
+
+                    held[p] &= ~(1L << c);
+                    cards[i] = c;
+                }
+
+                int won = (lead + Rules.winner(cards[0], cards[1], cards[2])) % 3;
+
+                if(winner(t) != won)
+                    return "trick " + t + " is given to the wrong position";
+
+                tricks[won]++;
+                lead = won;
+            }
+
+            for(int p = 0; p < 3; p++)
+                if(score(p) != tricks[p])
+                    return "the scores don't match the tricks won";
+
+            return null;
+        }
+
+        /** Return the id of the agent in a position, the same in every log read. */
+        int agent(int position) { return ids[buffer.get(base + GameLog.IDS + position) & 0xFF]; }
+
+        /** Return the name of the agent in a position, or its id in its log if the log's names are missing. */
+        String name(int position) { return names.get(agent(position)); }
+
+        /** Return the position that was dealt a card. The leader's includes its discards. */
+        int dealtTo(Card c)
+        {
+            int k = c.ordinal();
+            return (buffer.get(base + GameLog.DEAL + k / 4) >>> (2 * (k % 4))) & 3;
+        }
+
+        /** Return the cards dealt to a position, as a mask of bits by ordinal. */
+        long dealt(int position)
+        {
+            long mask = 0L;
+
+            for(int b = 0; b < DealCorpus.RECORD; b++)
+            {
+                int packed = buffer.get(base + GameLog.DEAL + b);
+
+                for(int k = 0; k < 4; k++)
+                    if(((packed >>> (2 * k)) & 3) == position)
+                        mask |= 1L << (4 * b + k);
+            }
+
+            return mask;
+        }
+
+        /** Return the number of cards of a suit dealt to a position. */
+        int dealt(int position, Suit suit)
+        {
+            return Long.bitCount(dealt(position) & Rules.SUITS[suit.ordinal()]);
+        }
+
+        /** Return one of the leader's four discards. */
+        Card discard(int i) { return Rules.CARDS[buffer.get(base + GameLog.DISCARDS + i)]; }
+
+        /** Return the i-th card played in the hand, from 0 to 47. */
+        Card card(int i) { return Rules.CARDS[buffer.get(base + GameLog.PLAYS + i)]; }
+
+        /** Return the card a trick was led with. */
+        Card led(int trick) { return card(3 * trick); }
+
+        /** Return the position that led a trick. */
+        int leader(int trick) { return trick == 0 ? Game.LEADER : winner(trick - 1); }
+
+        /** Return the position that played the i-th card of the hand. */
+        int player(int i) { return (leader(i / 3) + i % 3) % 3; }
+
+        /** Return the position that won a trick. */
+        int winner(int trick) { return buffer.get(base + GameLog.WINNERS + trick); }
+
+        /** Return the hand score of a position. */
+        int score(int position) { return buffer.get(base + GameLog.SCORES + position); }
+    }
+
+    /** Counts and score totals of hands, by agent id and position. */
+    private static final class Tally
+    {
+        final long[][] hands;
+        final long[][] points;
+        final long[][] wins;
+
+        Tally(int agents)
+        {
+            hands = new long[agents][3];
+            points = new long[agents][3];
+            wins = new long[agents][3];
+        }
+
+        void merge(Tally other)
+        {
+            for(int a = 0; a < hands.length; a++)
+            {
+                for(int p = 0; p < 3; p++)
+                {
+                    hands[a][p] += other.hands[a][p];
+                    points[a][p] += other.points[a][p];
+                    wins[a][p] += other.wins[a][p];
+                }
+            }
+        }
+
+        void add(Hand hand, int position)
+        {
+            int a = hand.agent(position);
+            hands[a][position]++;
+            points[a][position] += hand.score(position);
+
+            if(hand.score(position) > Math.max(hand.score((position + 1) % 3), hand.score((position + 2) % 3)))
+                wins[a][position]++;
+        }
+
+        void print(PrintStream out, List<String> names, String title)
+        {
+            out.println(title);
+
+            for(int a = 0; a < hands.length; a++)
+            {
+                for(int p = 0; p < 3; p++)
+                {
+                    if(hands[a][p] > 0)
+                    {
+                        out.printf("  %s as %s: %d hands, mean score %.3f, won %.1f%%%n",
+                            names.get(a), POSITIONS[p], hands[a][p],
+                            (double)points[a][p] / hands[a][p], 100.0 * wins[a][p] / hands[a][p]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Print some standard reports on a set of logs: each agent's results in
+     * each position, the same for leaders dealt at least six spades, and how
+     * often the leader of each trick goes on to win it.
+     * @param args the logs or directories of logs to read, then optionally "threads=N"
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> logs = new ArrayList<>();
+
+        for(String arg : args)
+        {
+            if(arg.startsWith("threads=")) threads = Integer.parseInt(arg.substring(8));
+            else logs.add(new File(arg));
+        }
+
+        GameLogReader reader = new GameLogReader(logs.toArray(new File[logs.size()]));
+        int agents = reader.agents();
+        long start = System.nanoTime();
+
+        Tally all = reader.aggregate(new Aggregation<Tally>()
+        {
+            @Override public Tally start() { return new Tally(agents); }
+            @Override public void merge(Tally into, Tally other) { into.merge(other); }
+
+            @Override
+            public void add(Tally into, Hand hand)
+            {
+                for(int p = 0; p < 3; p++)
+                    into.add(hand, p);
+            }
+        }, threads);
+
+        Tally spades = reader.aggregate(new Aggregation<Tally>()
+        {
+            @Override public Tally start() { return new Tally(agents); }
+            @Override public void merge(Tally into, Tally other) { into.merge(other); }
+
+            @Override
+            public void add(Tally into, Hand hand)
+            {
+                if(hand.dealt(Game.LEADER, Game.TRUMP) >= 6)
+                    into.add(hand, Game.LEADER);
+            }
+        }, threads);
+
+        long[][] leads = reader.aggregate(new Aggregation<long[][]>()
+        {
+            @Override public long[][] start() { return new long[2][Game.DEAL]; }
+
+            @Override
+            public void merge(long[][] into, long[][] other)
+            {
+                for(int t = 0; t < Game.DEAL; t++)
+                {
+                    into[0][t] += other[0][t];
+                    into[1][t] += other[1][t];
+                }
+            }
+
+            @Override
+            public void add(long[][] into, Hand hand)
+            {
+                for(int t = 0; t < Game.DEAL; t++)
+                {
+                    into[0][t]++;
+
+                    if(hand.winner(t) == hand.leader(t))
+                        into[1][t]++;
+                }
+            }
+        }, threads);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        all.print(System.out, reader.names, "All hands:");
+        spades.print(System.out, reader.names, "Leaders dealt at least six spades:");
+        System.out.println("Tricks won by their leader:");
+
+        for(int t = 0; t < Game.DEAL; t++)
+        {
+            if(leads[0][t] > 0)
+                System.out.printf("  trick %2d: %.1f%%%n", t + 1, 100.0 * leads[1][t] / leads[0][t]);
+        }
+
+        System.out.printf("Scanned %d hands three times in %.2f s (%.1f million hands/s)%n",
+            reader.size(), seconds, 3 * reader.size() / seconds / 1e6);
+    }
+}
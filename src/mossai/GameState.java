@@ -1,14 +1,14 @@
 package mossai;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 /** Encapsulation of the games state at a point in time. */
 class GameState
 {
     /** The agent's place relative to the leader. */
-    public static int pos;
+    private final int pos;
     
     /** The indices of players in their turn order for this trick. */
     public int[] order;
@@ -25,14 +25,14 @@ class GameState
     /** The beliefs held by the agent and the two simulated opponents. */
     public final BeliefState[] beliefs;
     
-    /** Number of Monte Carlo simulations that have used this state. */
-    private double playthroughs;
+    /** Working space for the location of each card in a sampled deal. */
+    private final int[] sample = new int[Game.DECK_SIZE];
     
-    /** Number of winning Monte Carlo simulations that have used this state. */
-    private double wins;
-    
-    /** Number of successor states in a Monte Carlo simulation. */
-    private ArrayList<GameState> children;
+    /**
+     * The Zobrist hash of everything the agent knows: its own hand, who
+     * played each card so far and to which trick, the leader and the scores.
+     */
+    private long key;
     
     /** Construct a blank state for a new game. */
     GameState(int p, List<Card> deal)
@@ -48,43 +48,36 @@ class GameState
         Arrays.fill(hand, -1);
         
         for(Card c : deal)
+        {
             hand[Game.cardToInt(c)] = pos;
+            key ^= Zobrist.HAND[c.ordinal()];
+        }
+        
+        key ^= Zobrist.LEADER[order[0]];
+        
+        for(int i = 0; i < 3; i++)
+            key ^= Zobrist.SCORE[i][scores[i] + 8];
         
         beliefs = new BeliefState[3];
         beliefs[pos] = new BeliefState(pos, new BeliefState(), hand);
         beliefs[(pos+1)%3] = new BeliefState();
         beliefs[(pos+2)%3] = new BeliefState();
-        
-        playthroughs = 0.0;
-        wins = 0.0;
-        children = null;
     }
     
-    /** Copy a state, filling out the opponents beliefs with sample data if asked to. */
-    private GameState(GameState old, boolean sample)
+    /** Copy a state. */
+    private GameState(GameState old)
     {
+        pos = old.pos;
         order = Arrays.copyOf(old.order, 3);
         turn = old.turn;
         table = Arrays.copyOf(old.table, 3);
         scores = Arrays.copyOf(old.scores, 3);
+        key = old.key;
         
         beliefs = new BeliefState[3];
-        beliefs[pos] = new BeliefState(old.beliefs[pos]);
         
-        if(sample)
-        {
-            int[] cards = beliefs[pos].sampleState();
-            
-            for(int i = 1; i < 3; i++)
-                beliefs[(pos+i)%3] = new BeliefState((pos+i)%3, old.beliefs[(pos+i)%3], cards);
-        }
-        else
-            for(int i = 1; i < 3; i++)
-                beliefs[(pos+i)%3] = new BeliefState(old.beliefs[(pos+i)%3]);
-        
-        playthroughs = 0.0;
-        wins = 0.0;
-        children = null;
+        for(int i = 0; i < 3; i++)
+            beliefs[i] = new BeliefState(old.beliefs[i]);
     }
 	
 	/** Return the player whose turn this state represents. */
@@ -165,8 +158,8 @@ class GameState
             // See if the active has to follow suit but can beat the contested.
             if(active.has(table[order[0]].suit) && contested.suit == table[order[0]].suit && active.hasHigher(contested))
                 c0 = active.beat(contested);
-            // See if winning by trump is possible.
-            else if(active.has(Game.TRUMP))
+            // See if winning by trump is possible, which it is only without the lead suit.
+            else if(!active.has(table[order[0]].suit) && active.has(Game.TRUMP))
             {
                 if(contested.suit == Game.TRUMP)
                     c0 = active.beat(contested);
@@ -179,34 +172,85 @@ class GameState
         // Play a (hopefully) winning card.
         if(c0 != null)
             return c0;
-        // Throw away a card without having to follow suit.
+        // Throw away a card without having to follow suit, a trump only if nothing else is left.
         else if(table[order[0]] == null || !active.has(table[order[0]].suit))
-            return active.lowest(true);
+        {
+            Card low = active.lowest(true);
+            return low != null ? low : active.lowest(false);
+        }
         // Throw away a card while being obliged to follow suit.
         else
             return active.lowest(table[order[0]].suit);
     }
     
-    /** Use Monte Carlo tree search to evaluate the best move from this state. */
-    Card monteCarlo()
+    /** Return a copy of this state, to be filled by determinize. */
+    GameState copy() { return new GameState(this); }
+    
+    /**
+     * Overwrite this state with a copy of another of the same agent's, with
+     * the opponents' hands filled out by a deal drawn from the given stream,
+     * so every player knows their own cards. Nothing is allocated apart from
+     * the sampler's working space.
+     */
+    void determinize(GameState from, Random sampler)
     {
-        GameState root = new GameState(this, true);
-        root.expand();
-        
-        // Run the search.
-        for(int i = 0; i < Raptor.MC_SAMPLES; i++)
-            root.playOut();
+        beliefs[pos].copy(from.beliefs[pos]);
+        beliefs[pos].sampleState(sampler, sample);
+        reveal(from, sample);
+    }
+    
+    /**
+     * Overwrite this state with a copy of another of the same agent's, with
+     * the opponents' hands filled out by a given deal, one of those listed
+     * by deals.
+     */
+    void deal(GameState from, int[] cardState)
+    {
+        beliefs[pos].copy(from.beliefs[pos]);
+        reveal(from, cardState);
+    }
+    
+    /**
+     * List every deal of the hidden cards consistent with what the agent has
+     * seen, each equally likely, if there are no more than a limit of them.
+     * Returns the number of deals, or -1 if there are more.
+     */
+    int deals(int limit, List<int[]> into) { return beliefs[pos].deals(limit, into); }
+    
+    /** Copy the rest of another state, with each opponent's belief revealed their hand in a deal. */
+    private void reveal(GameState from, int[] cardState)
+    {
+        System.arraycopy(from.order, 0, order, 0, 3);
+        turn = from.turn;
+        System.arraycopy(from.table, 0, table, 0, 3);
+        System.arraycopy(from.scores, 0, scores, 0, 3);
+        key = from.key;
         
-        // Identify the best card.
-        GameState best = root.children.get(0);
+        for(int i = 1; i < 3; i++)
+        {
+            beliefs[(pos+i)%3].copy(from.beliefs[(pos+i)%3]);
+            beliefs[(pos+i)%3].reveal((pos+i)%3, cardState);
+        }
+    }
+    
+    /**
+     * Fill an array with the cards the active player may play, and return how
+     * many there are. Only valid in a determinized state, or on the agent's turn.
+     */
+    int moves(Card[] into)
+    {
+        BeliefState active = beliefs[turn];
+        Suit lead = table[order[0]] == null ? null : table[order[0]].suit;
+        boolean follow = lead != null && active.has(lead);
+        int n = 0;
         
-        for(GameState child : root.children)
-            if(child.wins / child.playthroughs > best.wins / best.playthroughs)
-                best = child;
+        for(Card c : Rules.CARDS)
+            if(active.has(c) && (!follow || c.suit == lead))
+                into[n++] = c;
         
-        return best.table[pos];
+        return n;
     }
-	
+    
 	/** Pick the lowest ranked card for discarding. */
 	Card discardLow()
 	{
@@ -218,26 +262,18 @@ class GameState
     /** Move the state forward by one turn. */
     void advance(Card played)
     {
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		System.out.println("Pre advance, active is pos " + turn);
-////////////////////////////////////////////////////////////////////////////////
         for(BeliefState b : beliefs)
             b.cardPlayed(played, turn, table[order[0]]);
 		
         table[turn] = played;
+        key ^= Zobrist.TABLE[turn][played.ordinal()];
         turn = left();
         
         // If trick over, update score, clear table, set order. 
         if(turn == order[0])
         {
-            int win = order[0];
-            
-            for(int i = 1; i < 3; i++)
-            {
-                int p = order[i];
-                if(challenge(table[win], table[p]))
-                    win = p;
-            }
+            int win = order[Rules.winner(table[order[0]].ordinal(), table[order[1]].ordinal(), table[order[2]].ordinal())];
+            key = finishTrick(key, table, win);
             
             Arrays.fill(table, null);
             turn = win;
@@ -246,11 +282,41 @@ class GameState
             order[1] = left();
             order[2] = right();
         }
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		System.out.println("Post advance, active is pos " + turn);
-////////////////////////////////////////////////////////////////////////////////
     }
 	
+    /** Return the Zobrist hash of what the agent knows of this state. */
+    long key() { return key; }
+    
+    /**
+     * Return the hash the state would have after the active player played a
+     * card, mixed with the player, so values kept for each player's moves
+     * into the same position are told apart.
+     */
+    long keyAfter(Card c)
+    {
+        long k = key ^ Zobrist.TABLE[turn][c.ordinal()] ^ Zobrist.MOVER[turn];
+        
+        if(left() == order[0])
+        {
+            Card last = table[turn];
+            table[turn] = c;
+            k = finishTrick(k, table, order[Rules.winner(table[order[0]].ordinal(), table[order[1]].ordinal(), c.ordinal())]);
+            table[turn] = last;
+        }
+        
+        return k;
+    }
+    
+    /** Return a hash updated for the trick on the table being won by a player: the cards leave the table, and the lead and score change. */
+    private long finishTrick(long k, Card[] trick, int win)
+    {
+        for(int p = 0; p < 3; p++)
+            k ^= Zobrist.TABLE[p][trick[p].ordinal()] ^ Zobrist.PLAYED[p][trick[p].ordinal()];
+        
+        return k ^ Zobrist.LEADER[order[0]] ^ Zobrist.LEADER[win]
+            ^ Zobrist.SCORE[win][scores[win] + 8] ^ Zobrist.SCORE[win][scores[win] + 9];
+    }
+    
 	/** Return the player to the left of (next in the order) of the active. */
 	private int left() {return (turn + 1) % 3;}
 	
@@ -258,102 +324,11 @@ class GameState
 	private int right() {return (turn + 2) % 3;}
 	
 	/** Returns true if the challenger beat the contested. */
-	private boolean challenge(Card contested, Card challenger)
-	{
-		return (challenger.suit == contested.suit && challenger.rank > contested.rank)
-			|| (challenger.suit == Game.TRUMP && contested.suit != Game.TRUMP);
-	}
-
-    /** Generate the children of a node on the tree. */
-    private void expand()
-    {
-        // Skip the whole process if the node is already expanded.
-        if(children == null)
-        {
-            children = new ArrayList();
-
-            for(Suit s : Suit.values())
-            {
-                // If the agent is allowed to play from this suit.
-                if(legal(pos, s))
-                {
-                    for(int i = Game.suitBegins(s); i <= Game.suitEnds(s); i++)
-                    {
-                        // If the agent otherHas this card.
-                        if(beliefs[pos].otherHas(Game.intToCard(i), pos))
-                        {
-                            // Simulate a legal move.
-                            GameState child = new GameState(this, false);
-                            child.advance(Game.intToCard(i));
-
-                            // Simulate predicted opponent moves.
-                            while(child.turn != pos)
-                            {
-                                Card toPlay = child.greedyEval();
-                                child.advance(toPlay);
-                            }
-
-                            children.add(child);
-                        }
-                    }
-                }
-            }
-        }
-    }
+	private boolean challenge(Card contested, Card challenger) { return Rules.beats(challenger, contested); }
 
-    /** Choose a child node as the next in a play out. */
-    private boolean playOut()
-    {   
-        // Game over, roll back up the tree.
-        if(children.isEmpty())
-        {
-            // See if the agent won the game.
-            if(Raptor.DRAW_WINS) return scores[pos] >= scores[(pos+1)%3] && scores[pos] >= scores[(pos+2)%3];
-            else return scores[pos] > scores[(pos+1)%3] && scores[pos] > scores[(pos+2)%3];
-        }
-        // Continue the play out.
-        else
-        {
-            int best = 0;
-            double max = 0;
-
-            for(int i = 0; i < children.size(); i++)
-            {
-                double u = children.get(i).UTC(playthroughs);
-
-                if(u > max)
-                {
-                    max = u;
-                    best = i;
-                }
-            }
-
-            children.get(best).expand();
-            playthroughs++;
-
-            if(children.get(best).playOut())
-            {
-                wins++;
-                return true;
-            }
-            else return false;
-        }
-    }
-	
-    /** Function for balancing exploitation and exploration when searching the tree. */
-    private double UTC(double parentPT)
-    {
-        return wins / playthroughs + Raptor.BIAS * Math.sqrt(Math.log(parentPT) / playthroughs);
-    }
-
-    /**
-     * Returns true if a given player knows they are allowed to play a card
-     * from a certain suit.
-     * NOTE: Do not try using this to inform one player about another player's
-     * hand. Will not work.
-     */
-    private boolean legal(int p, Suit s)
-    {
-        return p == order[0] || s == table[order[0]].suit || !beliefs[p].otherHas(table[order[0]].suit, pos);
-    }
+    /** Return the number of tricks a player took, its score having started 4 or 8 below 0. */
+    int tricks(int p) { return scores[p] + (p == Game.LEADER ? 8 : 4); }
+    
+    /** Returns true once all sixteen tricks are played, the scores having started at a total of -16. */
+    boolean over() { return scores[0] + scores[1] + scores[2] == 0; }
  }
@@ -1,6 +1,5 @@
 package mossai;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,8 +21,6 @@ public class GreedyRaptor implements MSWAgent
     /** The probability threshold above which to treat as certain that an opponent possesses a card. */
     static final double POSITIVE;
     
-    private static String ME;
-    
     static
     {
         BIAS = Math.sqrt(2.0);
@@ -31,15 +28,20 @@ public class GreedyRaptor implements MSWAgent
         SEARCH_TIME = 190;
         MC_SAMPLES = 10;
         POSITIVE = 0.75;
-        ME = "Clever Girl";
     }
     
+    /** The name this agent gives itself. */
+    private final String name;
+    
     private String left;
     private String right;
     
     private GameState state;
     
-    public GreedyRaptor() {}
+    public GreedyRaptor() { this("Clever Girl"); }
+    
+    /** Create an agent. Its play depends on nothing but what it sees, so it is always reproducible. */
+    public GreedyRaptor(String name) { this.name = name; }
     
     @Override
     public void setup(String agentLeft, String agentRight)
@@ -93,5 +95,5 @@ public class GreedyRaptor implements MSWAgent
     }
 
     @Override
-    public String sayName() { return ME; }
+    public String sayName() { return name; }
 }
\ No newline at end of file
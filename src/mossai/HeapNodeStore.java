@@ -0,0 +1,65 @@
+package mossai;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A node store in parallel arrays on the heap, one per field, updated
+ * atomically. Suits the trees of a single move, which are small enough for
+ * the collector to pass over cheaply.
+ */
+final class HeapNodeStore implements NodeStore
+{
+    private final int capacity;
+    private final byte[] move;
+    private final byte[] mover;
+    private final int[] parent;
+    private final int[] sibling;
+    private final AtomicIntegerArray firstChild;
+    private final AtomicLongArray visits;
+    private final AtomicLongArray available;
+    private final AtomicLongArray reward;
+
+    HeapNodeStore(int capacity)
+    {
+        this.capacity = capacity;
+        move = new byte[capacity];
+        mover = new byte[capacity];
+        parent = new int[capacity];
+        sibling = new int[capacity];
+        firstChild = new AtomicIntegerArray(capacity);
+        visits = new AtomicLongArray(capacity);
+        available = new AtomicLongArray(capacity);
+        reward = new AtomicLongArray(capacity);
+    }
+
+    @Override public int capacity() { return capacity; }
+
+    @Override
+    public void init(int node, int up, int card, int by, long availability)
+    {
+        move[node] = (byte)card;
+        mover[node] = (byte)by;
+        parent[node] = up;
+        sibling[node] = -1;
+        firstChild.set(node, -1);
+        visits.set(node, 0L);
+        available.set(node, availability);
+        reward.set(node, 0L);
+    }
+
+    @Override public int move(int node) { return move[node]; }
+    @Override public int mover(int node) { return mover[node]; }
+    @Override public int parent(int node) { return parent[node]; }
+    @Override public void setParent(int node, int up) { parent[node] = up; }
+    @Override public int sibling(int node) { return sibling[node]; }
+    @Override public void setSibling(int node, int next) { sibling[node] = next; }
+    @Override public int firstChild(int node) { return firstChild.get(node); }
+    @Override public boolean casFirstChild(int node, int expect, int child) { return firstChild.compareAndSet(node, expect, child); }
+    @Override public long visits(int node) { return visits.get(node); }
+    @Override public long addVisits(int node, long delta) { return visits.addAndGet(node, delta); }
+    @Override public long available(int node) { return available.get(node); }
+    @Override public long addAvailable(int node, long delta) { return available.addAndGet(node, delta); }
+    @Override public long reward(int node) { return reward.get(node); }
+    @Override public void addReward(int node, long delta) { reward.addAndGet(node, delta); }
+}
@@ -0,0 +1,92 @@
+package mossai;
+
+/**
+ * A fixed size, log-linear histogram of durations in nanoseconds. Each
+ * power of two is split into eight buckets, so percentiles are accurate to
+ * within 12.5%, and recording never allocates.
+ */
+final class Histogram
+{
+    /** Values below this are counted exactly. */
+    private static final int EXACT = 16;
+
+    /** Buckets per power of two above EXACT. */
+    private static final int SUB = 8;
+
+    /** Enough buckets for any non-negative long. */
+    private static final int BUCKETS = EXACT + (63 - 4) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+
+    /** Record a duration. Negative durations count as 0. */
+    void record(long nanos)
+    {
+        long v = Math.max(nanos, 0L);
+        counts[bucket(v)]++;
+        total++;
+
+        if(v > max) max = v;
+    }
+
+    /** Add another histogram's counts to this one. */
+    void merge(Histogram other)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /** Return the number of durations recorded. */
+    long count() { return total; }
+
+    /** Return the longest duration recorded. */
+    long max() { return max; }
+
+    /**
+     * Return the duration below which a fraction q of those recorded fall,
+     * as the upper bound of its bucket, but never above the maximum.
+     */
+    long percentile(double q)
+    {
+        if(total == 0) return 0;
+
+        long rank = (long)Math.ceil(q * total);
+        long seen = 0;
+
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+
+            if(seen >= Math.max(rank, 1))
+                return Math.min(upper(i), max);
+        }
+
+        return max;
+    }
+
+    /** Return the bucket a value falls in. */
+    private static int bucket(long v)
+    {
+        if(v < EXACT) return (int)v;
+
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int)(v >>> (e - 3)) & (SUB - 1);
+        return EXACT + (e - 4) * SUB + sub;
+    }
+
+    /** Return the largest value in a bucket. */
+    private static long upper(int bucket)
+    {
+        if(bucket < EXACT) return bucket;
+
+        int e = (bucket - EXACT) / SUB + 4;
+        long sub = (bucket - EXACT) % SUB;
+
+        if(e >= 62) return Long.MAX_VALUE;
+        else return ((SUB + sub + 1) << (e - 3)) - 1;
+    }
+}
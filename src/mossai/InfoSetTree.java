@@ -0,0 +1,416 @@
+package mossai;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A search tree over the agent's information sets, for single observer
+ * information set Monte Carlo tree search. A node stands for every deal
+ * consistent with what the agent has seen, so one tree serves the whole
+ * search: each iteration draws a fresh deal of the hidden cards and walks
+ * down the moves that are legal in that deal, for every player in turn.
+ * <p>
+ * Since a move is only legal in some deals, each child counts how often it
+ * was available to be chosen, and the exploration term of its bound uses
+ * that count rather than the visits of its parent. Each node holds the
+ * tricks taken by the player who moved into it, so the opponents play to
+ * their own ends within the tree.
+ * <p>
+ * Nodes live in a NodeStore, indexed by node, allocated once and reset
+ * between moves, so growing the tree allocates nothing; large stores are
+ * kept off the heap. A node's children form a list through their sibling
+ * links, and a child is published by swapping it in at the head of the list
+ * with a compare and set. Statistics are updated atomically, so any number
+ * of threads may search one tree at once. Once the store is full the tree
+ * stops growing, and iterations play out from its leaves.
+ * <p>
+ * Between moves the tree can be moved down to the agent's new information
+ * set, keeping what was learned about it. The subtree kept is slid down to
+ * the start of the same store, so the space the rest of the old tree held
+ * is free again, at the cost of a bit and a half per node of bookkeeping.
+ * <p>
+ * The same position is often reached by more than one order of play, as
+ * nodes in different parts of the tree. Given a TranspositionTable, every
+ * iteration also adds its result to the entry for the hash of each position
+ * it passed through, and a node's value is read from there, pooling what
+ * was learned about the position wherever in the tree it was met. Exploring
+ * is still steered by the node's own visits.
+ */
+final class InfoSetTree
+{
+    /** The index standing for no node. */
+    private static final int NONE = -1;
+
+    /** The root, the agent's information set at the move being searched. */
+    private static final int ROOT = 0;
+
+    /** The greatest number of plays in an iteration. */
+    static final int DEPTH = 3 * Game.DEAL;
+
+    /** The nodes. */
+    private NodeStore nodes;
+
+    /** A bit for each node kept when the tree moves down, made when first needed. */
+    private long[] kept;
+
+    /** The number of nodes kept before each word of kept. */
+    private int[] before;
+
+    /** The number of nodes handed out since the last reset, which may run past the capacity. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The values of positions, shared between transpositions, or null to keep values in the nodes alone. */
+    private final TranspositionTable table;
+
+    /** Create an empty tree with room for a number of nodes, sharing values through a table if one is given. */
+    InfoSetTree(int capacity, TranspositionTable table) { this(NodeStore.of(capacity), table); }
+
+    /** Create an empty tree in a store, sharing values through a table if one is given. */
+    InfoSetTree(NodeStore nodes, TranspositionTable table)
+    {
+        this.nodes = nodes;
+        this.table = table;
+        reset();
+    }
+
+    /** Empty the tree, ready for a new search. Nothing may be searching it. */
+    void reset()
+    {
+        size.set(ROOT);
+        nodes.init(allocate(), NONE, NONE, Game.OUT, 0L);
+    }
+
+    /**
+     * Move the root down the tree by the moves played since it was searched,
+     * keeping the statistics of the subtree below, and return the number of
+     * iterations that passed through the new root. If the moves lead out of
+     * the tree the tree is emptied instead, and 0 returned. Nothing may be
+     * searching the tree.
+     * @param played the ordinals of the cards played, in order
+     */
+    long promote(byte[] played, int n)
+    {
+        int node = ROOT;
+
+        for(int i = 0; i < n && node != NONE; i++)
+        {
+            int child = nodes.firstChild(node);
+
+            while(child != NONE && nodes.move(child) != played[i])
+                child = nodes.sibling(child);
+
+            node = child;
+        }
+
+        if(node == NONE || n == 0)
+        {
+            reset();
+            return 0;
+        }
+
+        if(kept == null)
+        {
+            kept = new long[(nodes.capacity() + Long.SIZE - 1) / Long.SIZE];
+            before = new int[kept.length];
+        }
+
+        size.set(compact(node));
+        return nodes.visits(ROOT);
+    }
+
+    /**
+     * Move the subtree under a node to the start of the store, as the whole
+     * tree, and return the number of nodes in it. A child is always added
+     * after its parent, so the nodes kept keep their order and each moves
+     * down to its rank among them, which is never past where it was: moving
+     * them in order overwrites nothing still to be moved, and a node and
+     * its children still come in that order after.
+     */
+    private int compact(int top)
+    {
+        int end = size();
+        Arrays.fill(kept, 0L);
+        mark(top);
+
+        for(int node = top; node < end; node++)
+            if(marked(node))
+                for(int c = nodes.firstChild(node); c != NONE; c = nodes.sibling(c))
+                    mark(c);
+
+        int count = 0;
+
+        for(int w = 0; w < kept.length; w++)
+        {
+            before[w] = count;
+            count += Long.bitCount(kept[w]);
+        }
+
+        for(int node = top; node < end; node++)
+        {
+            if(!marked(node))
+                continue;
+
+            boolean root = node == top;
+            int move = root ? NONE : nodes.move(node);
+            int mover = root ? Game.OUT : nodes.mover(node);
+            int parent = root ? NONE : rank(nodes.parent(node));
+            int sibling = root ? NONE : rank(nodes.sibling(node));
+            int child = rank(nodes.firstChild(node));
+            long available = nodes.available(node);
+            long visits = nodes.visits(node);
+            long reward = nodes.reward(node);
+
+            int to = rank(node);
+            nodes.init(to, parent, move, mover, available);
+            nodes.addVisits(to, visits);
+            nodes.addReward(to, reward);
+            nodes.setSibling(to, sibling);
+            nodes.casFirstChild(to, NONE, child);
+        }
+
+        return count;
+    }
+
+    private void mark(int node) { kept[node / Long.SIZE] |= 1L << node; }
+
+    private boolean marked(int node) { return (kept[node / Long.SIZE] & 1L << node) != 0; }
+
+    /** Return the number of nodes kept before one, or NONE for no node. */
+    private int rank(int node)
+    {
+        if(node == NONE)
+            return NONE;
+
+        return before[node / Long.SIZE] + Long.bitCount(kept[node / Long.SIZE] & (1L << node) - 1);
+    }
+
+    /**
+     * Run one iteration: draw a deal consistent with a state from the given
+     * stream, choose moves down the tree until reaching a move not tried
+     * before, add it, play the rest of the hand greedily and count the tricks
+     * each player took at every node on the way.
+     * @param scratch working space made for the state's hand
+     */
+    void iterate(GameState state, Random rand, Scratch scratch)
+    {
+        GameState deal = scratch.deal;
+        int[] path = scratch.path;
+        long[] keys = scratch.keys;
+        Card[] moves = scratch.moves;
+        deal.determinize(state, rand);
+        int depth = 0;
+        int node = ROOT;
+        nodes.addVisits(ROOT, 1);
+
+        while(!deal.over())
+        {
+            int n = deal.moves(moves);
+            int next = select(node, deal, moves, n);
+
+            // A move new to this information set, so add it and stop descending.
+            if(next == NONE)
+            {
+                Card m = untried(node, moves, n, rand);
+                next = add(node, m, deal.active());
+
+                if(next != NONE)
+                {
+                    nodes.addVisits(next, 1);
+                    keys[depth] = deal.keyAfter(m);
+                    path[depth++] = next;
+                }
+
+                deal.advance(m);
+                break;
+            }
+
+            Card m = Rules.CARDS[nodes.move(next)];
+            nodes.addVisits(next, 1);
+            keys[depth] = deal.keyAfter(m);
+            path[depth++] = next;
+            deal.advance(m);
+            node = next;
+        }
+
+        Playout rollout = scratch.rollout;
+        rollout.load(deal);
+        rollout.play();
+
+        for(int i = 0; i < depth; i++)
+        {
+            int won = rollout.tricks(nodes.mover(path[i]));
+            nodes.addReward(path[i], won);
+
+            if(table != null)
+                table.add(keys[i], won);
+        }
+    }
+
+    /** Return the number of iterations run on the tree, including any under way. */
+    long visits() { return nodes.visits(ROOT); }
+
+    /** Return the number of nodes in the tree. */
+    int size() { return Math.min(size.get(), nodes.capacity()); }
+
+    /**
+     * Add the total reward and the visits of each of the agent's moves at
+     * the root, by card ordinal. Moves not yet tried are left out.
+     */
+    void tally(double[] totals, int[] counts)
+    {
+        for(int child = nodes.firstChild(ROOT); child != NONE; child = nodes.sibling(child))
+        {
+            totals[nodes.move(child)] += nodes.reward(child) / (double)Game.DEAL;
+            counts[nodes.move(child)] += (int)nodes.visits(child);
+        }
+    }
+
+    /**
+     * Count the children of a node whose moves are legal in this deal as
+     * available, and return the one with the highest bound, or NONE if any
+     * legal move has no child yet.
+     */
+    private int select(int node, GameState deal, Card[] moves, int n)
+    {
+        int best = NONE;
+        double max = Double.NEGATIVE_INFINITY;
+        int found = 0;
+
+        for(int child = nodes.firstChild(node); child != NONE; child = nodes.sibling(child))
+        {
+            if(!contains(moves, n, nodes.move(child)))
+                continue;
+
+            found++;
+            double u = bound(child, nodes.addAvailable(child, 1), deal);
+
+            if(u > max)
+            {
+                max = u;
+                best = child;
+            }
+        }
+
+        return found < n ? NONE : best;
+    }
+
+    /** Return one of the legal moves with no child yet at random. */
+    private Card untried(int node, Card[] moves, int n, Random rand)
+    {
+        int left = 0;
+
+        // Gather the untried moves at the front.
+        for(int i = 0; i < n; i++)
+        {
+            boolean tried = false;
+
+            for(int child = nodes.firstChild(node); child != NONE && !tried; child = nodes.sibling(child))
+                tried = nodes.move(child) == moves[i].ordinal();
+
+            if(!tried)
+            {
+                Card m = moves[left];
+                moves[left++] = moves[i];
+                moves[i] = m;
+            }
+        }
+
+        return moves[rand.nextInt(Math.max(left, 1))];
+    }
+
+    /**
+     * The upper confidence bound on a node's mover's reward, exploring by how
+     * often the move was available. The reward is averaged over every visit
+     * to the position the move leads to in the deal, if the table has them.
+     */
+    private double bound(int node, long availability, GameState deal)
+    {
+        long v = nodes.visits(node);
+
+        if(v == 0) return Double.POSITIVE_INFINITY;
+
+        double value = nodes.reward(node) / (double)(Game.DEAL * v);
+
+        if(table != null)
+        {
+            long stats = table.probe(deal.keyAfter(Rules.CARDS[nodes.move(node)]));
+
+            if(stats != TranspositionTable.MISS && TranspositionTable.visits(stats) > 0)
+                value = TranspositionTable.reward(stats) / (double)(Game.DEAL * TranspositionTable.visits(stats));
+        }
+
+        return value + Raptor.BIAS * Math.sqrt(Math.log(availability) / v);
+    }
+
+    /**
+     * Return a node's child for a move, adding it first if there isn't one,
+     * or NONE if the store is full. If another thread adds the same move at
+     * the same time, the child it publishes first is kept.
+     */
+    private int add(int node, Card m, int by)
+    {
+        int child = allocate();
+
+        if(child == NONE)
+            return NONE;
+
+        nodes.init(child, node, m.ordinal(), by, 1L);
+
+        while(true)
+        {
+            int head = nodes.firstChild(node);
+
+            for(int c = head; c != NONE; c = nodes.sibling(c))
+                if(nodes.move(c) == m.ordinal())
+                    return c;
+
+            nodes.setSibling(child, head);
+
+            if(nodes.casFirstChild(node, head, child))
+                return child;
+        }
+    }
+
+    /** Claim the next free node, or NONE if the store is full. */
+    private int allocate()
+    {
+        // Check first, so a full tree's count can't run on until it overflows.
+        if(size.get() >= nodes.capacity())
+            return NONE;
+
+        int node = size.getAndIncrement();
+        return node < nodes.capacity() ? node : NONE;
+    }
+
+    /** Working space for one thread's iterations, made for each hand. */
+    static final class Scratch
+    {
+        /** The sampled deal, a copy of the state searched. */
+        final GameState deal;
+
+        /** The nodes visited, and the hash of the position each led to. */
+        final int[] path = new int[DEPTH];
+        final long[] keys = new long[DEPTH];
+
+        /** The legal moves. */
+        final Card[] moves = new Card[Game.DEAL];
+
+        /** The greedy play of the rest of the deal. */
+        final Playout rollout = new Playout();
+
+        Scratch(GameState state) { deal = state.copy(); }
+
+        /** Returns true if this was made for a state of the same agent's hand. */
+        boolean fits(GameState state) { return deal.getPos() == state.getPos(); }
+    }
+
+    private static boolean contains(Card[] moves, int n, int card)
+    {
+        for(int i = 0; i < n; i++)
+            if(moves[i].ordinal() == card)
+                return true;
+
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package mossai;
+
+import java.io.PrintStream;
+
+/**
+ * Latency histograms for the calls the engine makes on each agent, and the
+ * rate at which hands and tricks are played. Games can share one set of
+ * metrics, so a tournament worker records every game it plays without
+ * allocating.
+ */
+final class Metrics
+{
+    /** The kinds of call that are timed. The first four match Watchdog's. */
+    static final int PLAY_CARD = Watchdog.PLAY_CARD;
+    static final int SEE_CARD = Watchdog.SEE_CARD;
+    static final int SEE_RESULT = Watchdog.SEE_RESULT;
+    static final int SEE_SCORE = Watchdog.SEE_SCORE;
+    static final int DISCARD = 4;
+
+    /** Names of the kinds of call, for reporting. */
+    static final String[] CALLS = {"playCard", "seeCard", "seeResult", "seeScore", "discard"};
+
+    /** Tricks in a hand. */
+    private static final int TRICKS = Game.DEAL;
+
+    /** Latency of each kind of call, by agent. */
+    private final Histogram[][] calls = new Histogram[3][CALLS.length];
+
+    /** Latency of playCard, by agent and trick number. */
+    private final Histogram[][] tricks = new Histogram[3][TRICKS];
+
+    /** Search iterations completed per move, by agent, for agents that search. */
+    private final Histogram[] searches = new Histogram[3];
+
+    /** Search iterations carried over from earlier moves per move, by agent. */
+    private final Histogram[] carried = new Histogram[3];
+
+    /** Hands and tricks played, and the time spent playing them. */
+    private long hands;
+    private long trickCount;
+    private long nanos;
+
+    Metrics()
+    {
+        for(int a = 0; a < 3; a++)
+        {
+            for(int k = 0; k < CALLS.length; k++)
+                calls[a][k] = new Histogram();
+
+            for(int t = 0; t < TRICKS; t++)
+                tricks[a][t] = new Histogram();
+
+            searches[a] = new Histogram();
+            carried[a] = new Histogram();
+        }
+    }
+
+    /** Record a call by an agent. */
+    void call(int agent, int kind, long nanos) { calls[agent][kind].record(nanos); }
+
+    /** Record a playCard call by an agent, during a given trick of the hand. */
+    void play(int agent, int trick, long nanos)
+    {
+        calls[agent][PLAY_CARD].record(nanos);
+        tricks[agent][trick].record(nanos);
+    }
+
+    /**
+     * Record the number of search iterations an agent completed for a move,
+     * and the number it kept from earlier moves, if it searched.
+     */
+    void search(int agent, SearchStats stats)
+    {
+        int iterations = stats.iterations();
+
+        if(iterations < 0)
+            return;
+
+        searches[agent].record(iterations);
+        carried[agent].record(stats.carried());
+    }
+
+    /** Record a hand of a number of tricks being played, taking some time. */
+    void hand(int played, long nanos)
+    {
+        hands++;
+        trickCount += played;
+        this.nanos += nanos;
+    }
+
+    /** Add another set of metrics to this one. */
+    void merge(Metrics other)
+    {
+        for(int a = 0; a < 3; a++)
+        {
+            for(int k = 0; k < CALLS.length; k++)
+                calls[a][k].merge(other.calls[a][k]);
+
+            for(int t = 0; t < TRICKS; t++)
+                tricks[a][t].merge(other.tricks[a][t]);
+
+            searches[a].merge(other.searches[a]);
+            carried[a].merge(other.carried[a]);
+        }
+
+        hands += other.hands;
+        trickCount += other.trickCount;
+        nanos += other.nanos;
+    }
+
+    /** Return the latency histogram of a kind of call by an agent. */
+    Histogram latency(int agent, int kind) { return calls[agent][kind]; }
+
+    /** Return the latency histogram of an agent's playCard calls during a given trick. */
+    Histogram playLatency(int agent, int trick) { return tricks[agent][trick]; }
+
+    /** Return the histogram of search iterations per move by an agent. */
+    Histogram searches(int agent) { return searches[agent]; }
+
+    /** Return the histogram of search iterations carried over per move by an agent. */
+    Histogram carried(int agent) { return carried[agent]; }
+
+    /**
+     * Write the percentiles of every kind of call by each agent, then of
+     * playCard by trick number, then the search iterations per move of any
+     * agents that search and those carried over from earlier moves, then the
+     * rates of play. Rates are per engine
+     * thread, counting only the time spent inside hands.
+     */
+    void print(PrintStream out, String[] names)
+    {
+        out.println("Latency in microseconds: count p50 p99 p99.9 max");
+
+        for(int a = 0; a < 3; a++)
+        {
+            for(int k = 0; k < CALLS.length; k++)
+                if(calls[a][k].count() > 0)
+                    line(out, names[a] + " " + CALLS[k], calls[a][k]);
+
+            for(int t = 0; t < TRICKS; t++)
+                if(tricks[a][t].count() > 0)
+                    line(out, names[a] + " playCard trick " + (t + 1), tricks[a][t]);
+        }
+
+        for(int a = 0; a < 3; a++)
+        {
+            Histogram h = searches[a];
+            Histogram kept = carried[a];
+
+            if(h.count() > 0)
+            {
+                out.printf("%s search iterations per move: count p1 p50 p99 max: %d %d %d %d %d%n", names[a],
+                    h.count(), h.percentile(0.01), h.percentile(0.5), h.percentile(0.99), h.max());
+                out.printf("%s search iterations carried over per move: count p1 p50 p99 max: %d %d %d %d %d%n", names[a],
+                    kept.count(), kept.percentile(0.01), kept.percentile(0.5), kept.percentile(0.99), kept.max());
+            }
+        }
+
+        double seconds = nanos / 1e9;
+        out.printf("%d hands, %d tricks: %.1f hands/s, %.1f tricks/s%n",
+            hands, trickCount, seconds == 0 ? 0.0 : hands / seconds, seconds == 0 ? 0.0 : trickCount / seconds);
+    }
+
+    /** Write one histogram's percentiles. */
+    private static void line(PrintStream out, String label, Histogram h)
+    {
+        out.printf("%s: %d %.1f %.1f %.1f %.1f%n", label, h.count(),
+            h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.percentile(0.999) / 1e3, h.max() / 1e3);
+    }
+}
@@ -13,11 +13,43 @@ public class MossSideWhist
     public String left; //the name of the second player
     public String right; //the name of the third player
     public Map<String, MSWAgent> agents;  //a map from names to players
-    public Map<String, Integer> scoreboard;  //a map from names to scores
-    public Map<String, ArrayList<Card>> hands;  //a map from names to cards
-    public Random rand = new Random();  //using for dealing cards
+    public Map<String, Integer> scoreboard;  //a map from names to scores, published at the end of each hand
+    public Random rand = new Random();  //using for dealing cards and replacing illegal moves
     public PrintStream report;  //For debugging. Can show hands and moves of each agent to stdout, 
-    //or can be replaced by a stub to hide the full game state.
+    //or can be replaced by a stub to hide the full game state. Null when playing headless.
+
+    //Per-seat state. Seats are numbered in construction order (p1, p2, p3),
+    //so seat (s+1)%3 is always to the left of seat s.
+    private final String[] names = new String[3];
+    private final MSWAgent[] seats = new MSWAgent[3];
+    private final int[] scores = new int[3];
+    private final long[] hands = new long[3]; //bit i set if the seat holds the card of ordinal i
+    private int lead; //the seat of the current leader
+
+    //Where deals come from. Unless seeded, or given a corpus, cards are dealt from rand.
+    private Random dealer;
+    private DealCorpus corpus;
+    private int nextDeal;
+    private final byte[] dealt = new byte[52]; //the seat of each card relative to the leader, by ordinal
+
+    //Times the agents' calls while limits are enforced. Kept afterwards for its counts.
+    private Watchdog watchdog;
+    private boolean enforcing;
+
+    //Records the latency of the agents' calls when set. Seat s is recorded as agent agentOf[s].
+    private Metrics metrics;
+    private int[] agentOf;
+    private int trickNumber;
+    private long tick; //when the last timed call ended, so each call needs only one clock read
+
+    //Records every hand when set. Seat s is logged as agent id logIds[s].
+    private GameLog log;
+    private int[] logIds;
+    private final int[] logPositions = new int[3]; //the ids of the leader, left and right
+    private final byte[] discarded = new byte[4];
+    private final byte[] played = new byte[48];
+    private final byte[] won = new byte[16];
+    private int plays;
 
     /**
      * Constructor. Takes three agents and their names, and initialises variables
@@ -34,6 +66,13 @@ public class MossSideWhist
         leader = n1;
         left = n2.equals(n1) ? n1 + " copy" : n2;
         right = n3.equals(n1) ? n1 + " duplicate" : n3.equals(n2) ? n2 + " copy" : n3;
+        names[0] = leader;
+        names[1] = left;
+        names[2] = right;
+        seats[0] = p1;
+        seats[1] = p2;
+        seats[2] = p3;
+        lead = 0;
         //store agents
         agents = new HashMap<String, MSWAgent>();
         agents.put(leader, p1);
@@ -67,7 +106,7 @@ public class MossSideWhist
      * Scoreboard is updated and results are dsplayed to the printStream.
      * After each hand the leader role moves 1 space ot the left.
      * @param rotations, the number of full rotations (i.e. it plays 3*rotations rounds of MossSideWhist)
-     * @param report,    a printstream to display to game state.
+     * @param report,    a printstream to display to game state, or null to play headless.
      * */
     public void playGame(int rounds, PrintStream report)
     {
@@ -75,13 +114,144 @@ public class MossSideWhist
         for(int i = 0; i < 3 * rounds; i++)
         {
             playHand();
-            String tmp = leader;
-            leader = left;
-            left = right;
-            right = tmp;
+            lead = (lead + 1) % 3;
+            leader = names[lead];
+            left = names[(lead + 1) % 3];
+            right = names[(lead + 2) % 3];
         }
     }
 
+    /**
+     * Plays the specified number of full rotations without any report.
+     * No hands, moves or scores are formatted, so this is the mode to use
+     * when evaluating agents over large numbers of games.
+     * The scoreboard is identical to that of a reported game with the same deal and moves.
+     * @param rotations, the number of full rotations (i.e. it plays 3*rotations rounds of MossSideWhist)
+     * */
+    public void playGame(int rounds)
+    {
+        playGame(rounds, null);
+    }
+
+    /**
+     * Returns the total score of a seat.
+     * @param seat the seat, numbered in construction order (0 for p1, 1 for p2, 2 for p3)
+     * */
+    public int score(int seat)
+    {
+        return scores[seat];
+    }
+
+    /**
+     * Seeds the game, so the deals and replacements for illegal moves are reproducible.
+     * Deals are drawn from their own stream, so they do not depend on what the agents play.
+     * @param seed the seed for this game
+     * */
+    public void seed(long seed)
+    {
+        dealer = new Random(seed);
+        rand = new Random(~seed);
+    }
+
+    /**
+     * Takes deals from a corpus instead of dealing at random.
+     * Each hand uses the next deal in the corpus, wrapping around at the end.
+     * @param corpus the deals to play
+     * @param first  the index of the deal to use for the next hand
+     * */
+    void useCorpus(DealCorpus corpus, int first)
+    {
+        this.corpus = corpus;
+        nextDeal = first % corpus.size();
+    }
+
+    /**
+     * Turns enforcement of the time limits in MSWAgent on or off.
+     * While enforced, each agent's playCard, seeCard, seeResult and seeScore calls
+     * run on a thread of the agent's own and the game only waits until the call's deadline.
+     * A card that isn't played in time is replaced by a random legal card, as an illegal card would be.
+     * Timeouts and near misses (calls using over 80% of their limit) are counted per seat.
+     * @param on whether to enforce the limits
+     * */
+    public void enforceLimits(boolean on)
+    {
+        if(on && !enforcing)
+        {
+            // A watchdog that was shut down can't run calls again, so start another, keeping the counts so far.
+            watchdog = new Watchdog(seats, watchdog);
+        }
+        else if(!on && enforcing)
+        {
+            watchdog.shutdown();
+        }
+        enforcing = on;
+    }
+
+    /**
+     * Returns the number of calls by a seat that missed their deadline while limits were enforced.
+     * @param seat the seat, numbered in construction order
+     * */
+    public int timeouts(int seat)
+    {
+        int total = 0;
+        for(int kind = 0; watchdog != null && kind < Watchdog.CALLS.length; kind++)
+        {
+            total += watchdog.timeouts(seat, kind);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of calls by a seat that used over 80% of their limit while limits were enforced.
+     * @param seat the seat, numbered in construction order
+     * */
+    public int nearMisses(int seat)
+    {
+        int total = 0;
+        for(int kind = 0; watchdog != null && kind < Watchdog.CALLS.length; kind++)
+        {
+            total += watchdog.nearMisses(seat, kind);
+        }
+        return total;
+    }
+
+    /**
+     * Records the latency of every call on the agents, and the rate of play, in a set of metrics.
+     * The metrics may be shared by other games, with agentOf mapping this game's seats to agents.
+     * @param metrics  where to record, or null to stop recording
+     * @param agentOf  the agent each seat is recorded as, by seat
+     * */
+    void useMetrics(Metrics metrics, int[] agentOf)
+    {
+        this.metrics = metrics;
+        this.agentOf = agentOf;
+    }
+
+    /**
+     * Logs every hand to a binary game log, with each seat's agent registered by name.
+     * @param log where to log, or null to stop logging
+     * */
+    void useLog(GameLog log) throws IOException
+    {
+        int[] ids = new int[3];
+        for(int s = 0; log != null && s < 3; s++)
+        {
+            ids[s] = log.id(names[s]);
+        }
+        useLog(log, ids);
+    }
+
+    /**
+     * Logs every hand to a binary game log, with the seats' agents logged under the given ids.
+     * @param log where to log, or null to stop logging
+     * @param ids the agent id of each seat, by seat
+     * */
+    void useLog(GameLog log, int[] ids)
+    {
+        this.log = log;
+        logIds = ids;
+    }
+
     //Maybe should pass in the report as an argument?
     /**
      * The Logic for playing a hand of Moss Side Whist.
@@ -90,66 +260,109 @@ public class MossSideWhist
      * */
     public void playHand()
     {
-        report.println("The leader is " + leader + ", to the left is " + left + " and " + right + " is to the right.");
+        int second = (lead + 1) % 3;
+        int third = (lead + 2) % 3;
+        if(report != null)
+        {
+            report.println("The leader is " + leader + ", to the left is " + left + " and " + right + " is to the right.");
+        }
+        long start = metrics != null ? System.nanoTime() : 0L;
         deal();
-        display(leader);
-        display(left);
-        display(right);
-        Card[] discard = agents.get(leader).discard();
+        display(lead);
+        display(second);
+        display(third);
+        startClock();
+        Card[] discard = enforcing ? watchdog.discard(lead) : seats[lead].discard();
+        lap(lead, Metrics.DISCARD);
         for(int i = 0; i < 4; i++)
         {
-            if(i>=discard.length || !hands.get(leader).remove(discard[i]))
+            if(discard == null || i>=discard.length || discard[i] == null || (hands[lead] & Rules.bit(discard[i])) == 0)
             {
-                hands.get(leader).remove(0);//if illegitimate discards, the 0 card is discarded.
+                discarded[i] = (byte)Long.numberOfTrailingZeros(hands[lead]);
+                hands[lead] &= hands[lead] - 1;//if illegitimate discards, the 0 card is discarded.
             }        //could include a score penalty here as well.
-            display(leader);
+            else
+            {
+                discarded[i] = (byte)discard[i].ordinal();
+                hands[lead] &= ~Rules.bit(discard[i]);
+            }
+            display(lead);
         }
-        String first = leader;
+        plays = 0;
+        int first = lead;
         for(int i = 0; i < 16; i++)
         {
-            display(leader);
-            display(left);
-            display(right);
+            display(lead);
+            display(second);
+            display(third);
+            trickNumber = i;
             first = trick(first);
-            scoreboard.put(first, scoreboard.get(first) + 1);
+            scores[first]++;
+            won[i] = (byte)((first - lead + 3) % 3);
+        }
+        scores[lead] -= 8;
+        scores[second] -= 4;
+        scores[third] -= 4;
+        for(int s = 0; s < 3; s++)
+        {
+            scoreboard.put(names[s], scores[s]);
+        }
+        seeScore(lead);
+        seeScore(second);
+        seeScore(third);
+        if(metrics != null) metrics.hand(16, tick - start);
+        if(log != null)
+        {
+            logPositions[0] = logIds[lead];
+            logPositions[1] = logIds[second];
+            logPositions[2] = logIds[third];
+            try
+            {
+                log.append(logPositions, dealt, discarded, played, won);
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
         }
-        scoreboard.put(leader, scoreboard.get(leader) - 8);
-        scoreboard.put(left, scoreboard.get(left) - 4);
-        scoreboard.put(right, scoreboard.get(right) - 4);
-        agents.get(leader).seeScore(scoreboard);
-        agents.get(left).seeScore(scoreboard);
-        agents.get(right).seeScore(scoreboard);
         showScores();
     }
 
     /**
      * Deals cards to players.
-     * The Hands data structure is updated with a random deal of cards
+     * The hands are filled with a random deal of cards, or the next deal of the corpus,
      * with 20 to the leader and 16 to the remaining two players.
      * */
     public void deal()
     {
-        hands = new HashMap<String, ArrayList<Card>>();
-        hands.put(leader, new ArrayList<Card>());
-        hands.put(left, new ArrayList<Card>());
-        hands.put(right, new ArrayList<Card>());
-        ArrayList<Card> deck = new ArrayList<Card>(Arrays.asList(Card.values()));
-        for(int i = 0; i < 4; i++)
+        if(corpus != null)
         {
-            hands.get(leader).add(deck.remove(rand.nextInt(deck.size())));
+            corpus.get(nextDeal, dealt);
+            nextDeal = (nextDeal + 1) % corpus.size();
         }
-        for(int i = 0; i < 16; i++)
+        else
         {
-            hands.get(left).add(deck.remove(rand.nextInt(deck.size())));
-            hands.get(right).add(deck.remove(rand.nextInt(deck.size())));
-            hands.get(leader).add(deck.remove(rand.nextInt(deck.size())));
+            DealCorpus.deal(dealer != null ? dealer : rand, dealt);
+        }
+        hands[0] = 0L;
+        hands[1] = 0L;
+        hands[2] = 0L;
+        for(int c = 0; c < 52; c++)
+        {
+            hands[(lead + dealt[c]) % 3] |= 1L << c;
+        }
+        for(int order = MSWAgent.LEADER; order <= MSWAgent.RIGHT; order++)
+        {
+            int seat = (lead + order) % 3;
+            if(enforcing)
+            {
+                watchdog.seeHand(seat, toList(hands[seat]), order);
+            }
+            else
+            {
+                seats[seat].seeHand(toList(hands[seat]), order);
+            }
         }
-        Collections.sort(hands.get(leader));
-        Collections.sort(hands.get(left));
-        Collections.sort(hands.get(right));
-        agents.get(leader).seeHand((ArrayList<Card>)hands.get(leader).clone(), MSWAgent.LEADER);
-        agents.get(left).seeHand((ArrayList<Card>)hands.get(left).clone(), MSWAgent.LEFT);
-        agents.get(right).seeHand((ArrayList<Card>)hands.get(right).clone(), MSWAgent.RIGHT);
     }
 
     /**
@@ -158,151 +371,183 @@ public class MossSideWhist
      * If an agent plays an illegal card,
      * a random legal card from their hand is played in its place.
      * A points penalty may also be applied.
-     * Returns the name of the winner.
-     * @param first the name of the first player to play a card in this trick
+     * Returns the seat of the winner.
+     * @param first the seat of the first player to play a card in this trick
      * */
-    public String trick(String first)
+    public int trick(int first)
     {
-        String second = left;
-        String third = right;//calculate the position of each player.
-        if(first.equals(left))
-        {
-            second = right;
-            third = leader;
-        }
-        if(first.equals(right))
-        {
-            second = leader;
-            third = left;
-        }
-        Card[] trick = new Card[3];
+        int second = (first + 1) % 3;
+        int third = (first + 2) % 3;//calculate the position of each player.
         display(first, true);
-        Card lead = agents.get(first).playCard();
-        ArrayList<Card> hand = hands.get(first);
-        if(!hand.remove(lead))
-        {
-            lead = hand.remove(rand.nextInt(hand.size()));
-        }
-        showCards(lead, first);
-        report.println(lead);
+        Card lead = play(first, hands[first]);
         display(second, true);
-        Card next = agents.get(second).playCard();
-        hand = hands.get(second);
-        while(!legal(next, second, lead.suit))
-        {
-            next = hand.get(rand.nextInt(hand.size()));
-        }
-        hand.remove(next);
-        showCards(next, second);
-        report.println(next);
+        Card next = play(second, Rules.legal(hands[second], lead.suit.ordinal()));
         display(third, true);
-        Card last = agents.get(third).playCard();
-        hand = hands.get(third);
-        while(!legal(last, third, lead.suit))
+        Card last = play(third, Rules.legal(hands[third], lead.suit.ordinal()));
+        int winner = (first + Rules.winner(lead.ordinal(), next.ordinal(), last.ordinal())) % 3;
+        String name = names[winner];
+        for(int k = 0; k < 3; k++)
         {
-            last = hand.get(rand.nextInt(hand.size()));
+            int s = (this.lead + k) % 3;//the hand's leader hears first, then left, then right
+            if(enforcing)
+            {
+                watchdog.seeResult(s, name);
+            }
+            else
+            {
+                seats[s].seeResult(name);
+            }
+            lap(s, Metrics.SEE_RESULT);
         }
-        hand.remove(last);
-        showCards(last, third);
-        report.println(last);
-        String winner = getWinner(lead, next, last, first, second, third);
-        agents.get(leader).seeResult(winner);
-        agents.get(left).seeResult(winner);
-        agents.get(right).seeResult(winner);
-        report.println(winner + " wins the trick!");
+        if(report != null) report.println(name + " wins the trick!");
         return winner;
     }
 
-    //calculates the winner of a trick
-    private String getWinner(Card lead, Card next, Card last, String first, String second, String third)
+    //calls the see methods for each agent in the game,
+    //letting them know the card that was played.
+    private void showCards(Card c, int player)
     {
-        if(lead.compareTo(next) < 0 || !followsSuit(lead, next))
-        {//first beats second
-            if(lead.compareTo(last) < 0 || !followsSuit(lead, last))
-            {//first beats third
-                return first;
+        String name = names[player];
+        for(int k = 0; k < 3; k++)
+        {
+            int s = (this.lead + k) % 3;//the hand's leader hears first, then left, then right
+            if(enforcing)
+            {
+                watchdog.seeCard(s, c, name);
             }
             else
-            {//third beats first
-                return third;
+            {
+                seats[s].seeCard(c, name);
             }
+            lap(s, Metrics.SEE_CARD);
+        }
+    }
+
+    //shows a player the scoreboard
+    private void seeScore(int player)
+    {
+        if(enforcing)
+        {
+            watchdog.seeScore(player, scoreboard);
         }
         else
-        {//second beats first
-            if(next.compareTo(last) < 0 || !followsSuit(lead, last))
-            {//second beats thirs
-                return second;
+        {
+            seats[player].seeScore(scoreboard);
+        }
+        lap(player, Metrics.SEE_SCORE);
+    }
+
+    //asks a player for a card, and if it is not one of the legal cards (or is late when limits are enforced),
+    //replaces it with a random legal card. The card is then taken from the hand and shown to everyone.
+    private Card play(int player, long legal)
+    {
+        Card played = enforcing ? watchdog.playCard(player) : seats[player].playCard();
+        if(metrics != null)
+        {
+            long now = System.nanoTime();
+            metrics.play(agentOf[player], trickNumber, now - tick);
+            tick = now;
+            if(seats[player] instanceof SearchStats)
+            {
+                metrics.search(agentOf[player], (SearchStats)seats[player]);
             }
-            else
-            {//third beats second
-                return third;
+        }
+        if(played == null || (legal & Rules.bit(played)) == 0)
+        {
+            long pick = legal;
+            for(int n = rand.nextInt(Long.bitCount(legal)); n > 0; n--)
+            {
+                pick &= pick - 1;
             }
+            played = Rules.CARDS[Long.numberOfTrailingZeros(pick)];
+        }
+        hands[player] &= ~Rules.bit(played);
+        this.played[plays++] = (byte)played.ordinal();
+        showCards(played, player);
+        if(report != null)
+        {
+            report.println(played);
+            startClock();
         }
+        return played;
     }
 
-    //checks to see if a card follows suit, or is a trump
-    private boolean followsSuit(Card c1, Card c2)
+    //lists the cards in a hand, in order
+    private static List<Card> toList(long hand)
     {
-        return c2.suit == c1.suit || c2.suit == Suit.SPADES;
+        List<Card> list = new ArrayList<Card>(Long.bitCount(hand));
+        for(long h = hand; h != 0; h &= h - 1)
+        {
+            list.add(Rules.CARDS[Long.numberOfTrailingZeros(h)]);
+        }
+        return list;
     }
 
-    //calls the see methods for each agent in the game,
-    //letting them know the card that was played.
-    private void showCards(Card c, String player)
+    //starts timing the agents' calls afresh, after the engine has done something slow
+    private void startClock()
     {
-        agents.get(leader).seeCard(c, player);
-        agents.get(left).seeCard(c, player);
-        agents.get(right).seeCard(c, player);
+        if(metrics != null) tick = System.nanoTime();
     }
 
-    //checks to see if the played card was legal
-    private boolean legal(Card played, String player, Suit suit)
+    //records the time since the last timed call ended as a call of some kind by a seat
+    private void lap(int seat, int kind)
     {
-        if(hands.get(player).contains(played))
+        if(metrics != null)
         {
-            if(played.suit != suit)
-            {
-                for(Card c : hands.get(player))
-                {
-                    if(c.suit == suit)
-                    {
-                        return false; // card didn't match suit, but had one in hand.
-                    }
-                }
-                return true;// card didn't match suit, but not in hand
-            }
-            return true; // card in hand and matched suit
+            long now = System.nanoTime();
+            metrics.call(agentOf[seat], kind, now - tick);
+            tick = now;
         }
-        return false; //card not in hand.      
     }
 
     //overloaded method to display an agents full hand
-    private void display(String agent)
+    private void display(int seat)
     {
-       display(agent, false);
+       display(seat, false);
     }
 
     //displays the agents name and score, and if hidden is false, the remaining cards in their hand.
-    private void display(String agent, boolean hidden)
+    //Nothing is formatted when playing headless.
+    private void display(int seat, boolean hidden)
     {
-        report.println("Player: " + agent + "\tScore: " + scoreboard.get(agent));
+        if(report == null)
+        {
+            return;
+        }
+        report.println("Player: " + names[seat] + "\tScore: " + scores[seat]);
         if(!hidden)
         {
-            String hand = "";
-            for(Card c : hands.get(agent))
+            StringBuilder hand = new StringBuilder();
+            for(Card c : toList(hands[seat]))
             {
-                hand += c + ",";
+                hand.append(c).append(',');
             }
             report.println(hand);
         }
+        startClock();
     }
 
     //shows the scores of all players.
     private void showScores()
     {
-        report.println(leader + ": " + scoreboard.get(leader));
-        report.println(left + ": " + scoreboard.get(left));
-        report.println(right + ": " + scoreboard.get(right));
+        if(report == null)
+        {
+            return;
+        }
+        report.println(leader + ": " + scores[lead]);
+        report.println(left + ": " + scores[(lead + 1) % 3]);
+        report.println(right + ": " + scores[(lead + 2) % 3]);
+        for(int s = 0; enforcing && s < 3; s++)
+        {
+            for(int kind = 0; kind < Watchdog.CALLS.length; kind++)
+            {
+                if(watchdog.timeouts(s, kind) + watchdog.nearMisses(s, kind) > 0)
+                {
+                    report.println(names[s] + " " + Watchdog.CALLS[kind] + ": " + watchdog.timeouts(s, kind)
+                        + " timeouts, " + watchdog.nearMisses(s, kind) + " near misses");
+                }
+            }
+        }
     }
 
     /* public static void main(String[] args)
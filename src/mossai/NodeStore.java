@@ -0,0 +1,64 @@
+package mossai;
+
+/**
+ * Storage for the nodes of an InfoSetTree, by index. Stores are allocated
+ * at a fixed capacity and reused, and it is up to the tree to hand out
+ * indices and to initialise a node before using it, so emptying a store
+ * takes no time at all.
+ * <p>
+ * The statistics may be updated by several threads at once. A child's
+ * fields must be set before it is published with casFirstChild, and are
+ * then visible to any thread that finds it through firstChild.
+ */
+interface NodeStore
+{
+    /** The capacity above which stores are kept off the heap. */
+    int OFF_HEAP = 1 << 20;
+
+    /** Return a store for a number of nodes, off the heap if it is large. */
+    static NodeStore of(int capacity)
+    {
+        return capacity > OFF_HEAP ? new DirectNodeStore(capacity) : new HeapNodeStore(capacity);
+    }
+
+    /** Return the number of nodes the store holds. */
+    int capacity();
+
+    /** Set every field of a node, with no children and empty statistics. */
+    void init(int node, int parent, int move, int mover, long available);
+
+    /** Return the ordinal of the card played to reach a node. */
+    int move(int node);
+
+    /** Return the position that played a node's move. */
+    int mover(int node);
+
+    int parent(int node);
+
+    void setParent(int node, int parent);
+
+    /** Return the next child of a node's parent. */
+    int sibling(int node);
+
+    void setSibling(int node, int sibling);
+
+    /** Return a node's most recently added child. */
+    int firstChild(int node);
+
+    /** Replace a node's first child if it is still the one expected. */
+    boolean casFirstChild(int node, int expect, int child);
+
+    long visits(int node);
+
+    /** Add to a node's visits and return the new count. */
+    long addVisits(int node, long delta);
+
+    long available(int node);
+
+    /** Add to the times a node's move was available and return the new count. */
+    long addAvailable(int node, long delta);
+
+    long reward(int node);
+
+    void addReward(int node, long delta);
+}
@@ -0,0 +1,322 @@
+package mossai;
+
+/**
+ * Plays a determinized deal out to the end with the greedy strategy of
+ * GameState.greedyEval, on nothing but longs and ints, for the rollouts of
+ * a search. Hands are longs with bit i set for the card of ordinal i, as in
+ * Rules, and each player's beliefs are kept the same way, so a playout
+ * allocates nothing and makes each move in a handful of mask operations.
+ * <p>
+ * The strategy and the belief updates are those of GameState and
+ * BeliefState card for card, so a playout ends exactly as playing the same
+ * state out with greedyEval and advance would. Cards of ordinal i are
+ * ranked above those of ordinal i + 1 in the same suit, so the highest
+ * card of a suit in a hand is its lowest bit.
+ */
+final class Playout
+{
+    /** The cards each player holds. */
+    private final long[] hands = new long[3];
+
+    /**
+     * Each player's beliefs, four sets to a player by location: the cards
+     * that might be there, and the cards of each suit thought possible
+     * there, which are updated differently and so may differ.
+     */
+    private final long[] places = new long[3 * 4];
+    private final long[] suits = new long[3 * 4];
+
+    /** The number of cards each player hasn't placed in each location, four to a player. */
+    private final int[] unknowns = new int[3 * 4];
+
+    /** The cards each player is unsure of the location of. */
+    private final long[] doubts = new long[3];
+
+    /**
+     * The cards played since the playout was loaded. BeliefState takes a
+     * played card out of every location and out of doubt; the beliefs here
+     * are read through this mask instead, which does the same with one
+     * update rather than one to every set.
+     */
+    private long played;
+
+    /** The ordinal of the card each player played to the trick under way, or -1. */
+    private final int[] table = new int[3];
+
+    private final int[] scores = new int[3];
+
+    /** The player leading the trick under way. */
+    private int leader;
+
+    /** The player whose turn it is. */
+    private int turn;
+
+    /** Overwrite this playout with a determinized state, in which every player knows their own hand. */
+    void load(GameState from)
+    {
+        leader = from.order[0];
+        turn = from.active();
+        played = 0L;
+
+        for(int p = 0; p < 3; p++)
+        {
+            table[p] = from.table[p] == null ? -1 : from.table[p].ordinal();
+            scores[p] = from.scores[p];
+            doubts[p] = from.beliefs[p].pack(places, suits, unknowns, 4 * p);
+            hands[p] = places[4 * p + p] & ~doubts[p];
+        }
+    }
+
+    /** Overwrite this playout with a copy of another. */
+    void copy(Playout from)
+    {
+        System.arraycopy(from.hands, 0, hands, 0, hands.length);
+        System.arraycopy(from.places, 0, places, 0, places.length);
+        System.arraycopy(from.suits, 0, suits, 0, suits.length);
+        System.arraycopy(from.unknowns, 0, unknowns, 0, unknowns.length);
+        System.arraycopy(from.doubts, 0, doubts, 0, doubts.length);
+        System.arraycopy(from.table, 0, table, 0, table.length);
+        System.arraycopy(from.scores, 0, scores, 0, scores.length);
+        played = from.played;
+        leader = from.leader;
+        turn = from.turn;
+    }
+
+    /** Play greedily to the end of the hand. */
+    void play()
+    {
+        while(!over())
+            advance(greedy());
+    }
+
+    /** Return the ordinal of the card the active player would play by greedyEval. */
+    int greedy()
+    {
+        long hand = hands[turn];
+        int lead = table[leader];
+        int c = -1;
+
+        if(lead < 0)
+        {
+            // Lead the highest card of the first suit, taking trumps first,
+            // that neither opponent is likely to beat in the suit, or failing
+            // that the highest heart, or failing that throw away a card.
+            for(int s = Game.NUM_SUITS - 1; s >= 0; s--)
+            {
+                c = highest(hand, s);
+
+                if(c >= 0 && !higherLikely(c, (turn + 1) % 3) && !higherLikely(c, (turn + 2) % 3))
+                    return c;
+            }
+
+            if(c >= 0)
+                return c;
+
+            int low = lowest(hand, true);
+            return low >= 0 ? low : lowest(hand, false);
+        }
+
+        int suit = Rules.SUIT_OF[lead];
+        int contested;
+
+        if(turn == (leader + 1) % 3)
+        {
+            // Expect the last player to follow suit with their highest likely
+            // card, or failing that to trump.
+            int last = likely((turn + 1) % 3, suit);
+
+            if(last < 0 && suit != Game.TRUMP_INT)
+                last = likely((turn + 1) % 3, Game.TRUMP_INT);
+
+            contested = last >= 0 && beats(last, lead) ? last : lead;
+        }
+        else
+        {
+            int second = table[(leader + 1) % 3];
+            contested = beats(second, lead) ? second : lead;
+        }
+
+        long follow = hand & Rules.SUITS[suit];
+        long trumps = hand & Rules.SUITS[Game.TRUMP_INT];
+
+        // Beat the favourite by following suit, or failing that by trumping.
+        if(follow != 0 && Rules.SUIT_OF[contested] == suit && higher(hand, contested) != 0)
+            c = lowest(higher(hand, contested));
+        else if(follow == 0 && trumps != 0)
+            c = Rules.SUIT_OF[contested] == Game.TRUMP_INT ? lowest(higher(hand, contested)) : lowest(trumps);
+
+        if(c >= 0)
+            return c;
+        else if(follow == 0)
+        {
+            int low = lowest(hand, true);
+            return low >= 0 ? low : lowest(hand, false);
+        }
+        else
+            return lowest(follow);
+    }
+
+    /** Play a card for the active player, updating every player's beliefs as BeliefState.cardPlayed does. */
+    void advance(int c)
+    {
+        long bit = 1L << c;
+        int lead = table[leader];
+
+        // A player who neither follows suit nor trumps is taken to have none of the lead suit.
+        long voided = lead >= 0 && Rules.SUIT_OF[c] != Rules.SUIT_OF[lead] && Rules.SUIT_OF[c] != Game.TRUMP_INT
+            ? Rules.SUITS[Rules.SUIT_OF[lead]] : 0L;
+
+        for(int v = 0; v < 3; v++)
+        {
+            if(v == turn) continue;
+
+            int at = 4 * v;
+
+            if((doubts[v] & bit) != 0)
+                unknowns[at + turn]--;
+
+            suits[at + turn] &= ~voided;
+            places[at + turn] &= ~voided;
+        }
+
+        played |= bit;
+        hands[turn] &= ~bit;
+        table[turn] = c;
+        turn = (turn + 1) % 3;
+
+        if(turn == leader)
+        {
+            int win = (leader + Rules.winner(table[leader], table[(leader + 1) % 3], table[(leader + 2) % 3])) % 3;
+            table[0] = table[1] = table[2] = -1;
+            scores[win]++;
+            leader = turn = win;
+        }
+    }
+
+    /** Return the number of tricks a player took, as GameState.tricks. */
+    int tricks(int p) { return scores[p] + (p == Game.LEADER ? 8 : 4); }
+
+    /** Returns true once all sixteen tricks are played. */
+    boolean over() { return scores[0] + scores[1] + scores[2] == 0; }
+
+    /**
+     * Return the highest card of a suit the active player thinks a location
+     * likely to hold, as BeliefState.highestInOther, or -1.
+     */
+    private int likely(int loc, int suit)
+    {
+        int at = 4 * turn;
+
+        if((suits[at + loc] & ~played & Rules.SUITS[suit]) == 0)
+            return -1;
+
+        // Only cards in doubt can be likely: those whose place is known
+        // are in the viewer's hand or out of play. Cards that might be in
+        // the same places are as likely as each other, so each such group
+        // is tried once, from its highest card.
+        long doubt = doubts[turn] & ~played & Rules.SUITS[suit];
+
+        while(doubt != 0)
+        {
+            int c = Long.numberOfTrailingZeros(doubt);
+            long bit = 1L << c;
+            long same = doubt;
+            double denominator = 0.0;
+
+            for(int l = 0; l < 4; l++)
+            {
+                if((places[at + l] & bit) != 0)
+                {
+                    denominator += (double)unknowns[at + l];
+                    same &= places[at + l];
+                }
+                else same &= ~places[at + l];
+            }
+
+            if((double)unknowns[at + loc] / denominator > Raptor.POSITIVE)
+                return c;
+
+            doubt &= ~same;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns true if the active player thinks a location likely to hold a
+     * card of the same suit ranked above one, as BeliefState.otherHasHigher:
+     * one still in play that might be there, and either is known to be or
+     * is there by the share of the unknown cards where it might be.
+     */
+    private boolean higherLikely(int c, int loc)
+    {
+        int at = 4 * turn;
+
+        for(long m = places[at + loc] & ~played & higher(-1L, c); m != 0; m &= m - 1)
+        {
+            long bit = m & -m;
+
+            if((doubts[turn] & bit) == 0)
+                return true;
+
+            double denominator = 0.0;
+
+            for(int l = 0; l < 4; l++)
+                if((places[at + l] & bit) != 0)
+                    denominator += (double)unknowns[at + l];
+
+            if((double)unknowns[at + loc] / denominator > Raptor.POSITIVE)
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Returns true if a card wins over the card currently winning a trick, as Rules.beats. */
+    private static boolean beats(int challenger, int winning)
+    {
+        return (Rules.BEATS[Rules.SUIT_OF[winning]][challenger] & (1L << winning)) != 0;
+    }
+
+    /** Return the cards of a hand in the same suit as a card and ranked above it. */
+    private static long higher(long hand, int c)
+    {
+        return hand & Rules.SUITS[Rules.SUIT_OF[c]] & ((1L << c) - 1);
+    }
+
+    /** Return the highest card of a suit in a hand, or -1. */
+    private static int highest(long hand, int suit)
+    {
+        long cards = hand & Rules.SUITS[suit];
+        return cards == 0 ? -1 : Long.numberOfTrailingZeros(cards);
+    }
+
+    /** Return the lowest card of a set of the same suit, or -1. */
+    private static int lowest(long cards)
+    {
+        return cards == 0 ? -1 : 63 - Long.numberOfLeadingZeros(cards);
+    }
+
+    /**
+     * Return the lowest ranked card in a hand, optionally excluding trumps,
+     * taking the first suit by ordinal on a tie, as BeliefState.lowest, or -1.
+     */
+    private static int lowest(long hand, boolean noTrump)
+    {
+        int low = -1;
+
+        // Ranks fall as ordinals rise within a suit, so the lowest ranked
+        // card is the one furthest into its suit.
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+        {
+            if(s == Game.TRUMP_INT && noTrump) continue;
+
+            int c = lowest(hand & Rules.SUITS[s]);
+
+            if(c >= 0 && (low < 0 || c % Game.SUIT_SIZE > low % Game.SUIT_SIZE))
+                low = c;
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,816 @@
+package mossai;
+
+import java.util.Arrays;
+
+/**
+ * Plays up to 64 determinized deals of the same position out to the end at
+ * once with the greedy strategy of Playout, one card in every deal per
+ * step. The deals are lanes of a bit-sliced layout: where Playout keeps a
+ * set of cards in a long, this keeps a long for each card with bit j set
+ * if the card is in the set in deal j, and numbers are kept as a long for
+ * each binary digit. Every step of the strategy is then a few mask
+ * operations for each card still in play, made for all the deals together,
+ * and the fewer cards are left the faster a step is.
+ * <p>
+ * The deals must be of one position, with the same cards on the table and
+ * tricks left, so they finish together; who leads may differ. Each ends
+ * exactly as a Playout of it would.
+ */
+final class PlayoutBatch
+{
+    /** The most deals a batch holds. */
+    static final int LANES = 64;
+
+    /** Binary digits in the counts of unknown cards and tricks, each at most 16. */
+    private static final int BITS = 5;
+
+    /** Binary digits of the working space for comparing chances, which reach 3 * 48. */
+    private static final int WIDE = 8;
+
+    private static final int DECK = Game.DECK_SIZE;
+
+    /** The ordinal of the highest card of each suit. */
+    private static final int[] TOPS = new int[Game.NUM_SUITS];
+
+    static
+    {
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+            TOPS[s] = Long.numberOfTrailingZeros(Rules.SUITS[s]);
+    }
+
+    /** The lanes holding a deal. */
+    private long live;
+
+    /**
+     * The cards still in play in some lane: in a hand, among the discards,
+     * or on the table. No other card has a lane set in any belief or hand,
+     * so only these need looking at.
+     */
+    private long open;
+
+    /** The lanes in which each player holds each card, by player then card. */
+    private final long[] holds = new long[3 * DECK];
+
+    /**
+     * Each player's beliefs, as Playout's, by viewer, location and card: the
+     * lanes in which the card might be there, and in which it is among the
+     * cards of its suit thought possible there.
+     */
+    private final long[] places = new long[3 * 4 * DECK];
+    private final long[] suits = new long[3 * 4 * DECK];
+
+    /** The lanes in which each player is unsure where each card is, by player then card. */
+    private final long[] doubts = new long[3 * DECK];
+
+    /** The lanes in which each card has been played since the batch was loaded. */
+    private final long[] played = new long[DECK];
+
+    /** The digits of the number of cards each player hasn't placed in each location, by viewer and location. */
+    private final long[] unknowns = new long[3 * 4 * BITS];
+
+    /** The digits of the number of tricks each player has taken. */
+    private final long[] tricks = new long[3 * BITS];
+
+    /** The lanes in which each player leads the trick under way. */
+    private final long[] leads = new long[3];
+
+    /** The lanes in which each card is winning the trick under way. */
+    private final long[] winning = new long[DECK];
+
+    /** The lanes in which the trick under way was led in each suit. */
+    private final long[] ledSuits = new long[Game.NUM_SUITS];
+
+    /** The lanes in which the card played in each seat so far is winning the trick. */
+    private final long[] winningSeats = new long[3];
+
+    /** The number of cards on the table, the same in every lane. */
+    private int seat;
+
+    /** The number of tricks left to finish, counting the one under way. */
+    private int left;
+
+    /**
+     * Working space for a step, by card: the lanes in which it is held by
+     * the player to move, is played, is the card to beat, and is the card
+     * the second player expects the last to play. Entries for cards out of
+     * play are left stale.
+     */
+    private final long[] hand = new long[DECK];
+    private final long[] move = new long[DECK];
+    private final long[] contested = new long[DECK];
+    private final long[] expected = new long[DECK];
+
+    /** Working space for a step: the lanes in which each player moves, shows out of each suit, and takes the trick. */
+    private final long[] movers = new long[3];
+    private final long[] voids = new long[Game.NUM_SUITS];
+    private final long[] winners = new long[3];
+
+    /** Working space for comparing chances, and whether likely is filled for the player in the second seat. */
+    private final long[][] sums = new long[8][WIDE];
+    private final long[][] threefold = new long[3][WIDE];
+    private final long[] fourfold = new long[WIDE];
+    private final long[] likely = new long[8];
+    private boolean chanced;
+
+    /** Working space for leading: the chance tests for each opponent of the leader, as likely. */
+    private final long[][] rivals = new long[2][8];
+
+    /** Working space for loading a lane. */
+    private final long[] packedPlaces = new long[4];
+    private final long[] packedSuits = new long[4];
+    private final int[] packedUnknowns = new int[4];
+
+    /** Empty the batch. */
+    void clear()
+    {
+        live = 0L;
+        open = 0L;
+        Arrays.fill(holds, 0L);
+        Arrays.fill(places, 0L);
+        Arrays.fill(suits, 0L);
+        Arrays.fill(doubts, 0L);
+        Arrays.fill(played, 0L);
+        Arrays.fill(unknowns, 0L);
+        Arrays.fill(tricks, 0L);
+        Arrays.fill(leads, 0L);
+        Arrays.fill(winning, 0L);
+        Arrays.fill(ledSuits, 0L);
+        Arrays.fill(winningSeats, 0L);
+        seat = 0;
+        left = 0;
+    }
+
+    /**
+     * Load a determinized state, in which every player knows their own
+     * hand, into a free lane of a batch cleared beforehand.
+     */
+    void load(int lane, GameState from)
+    {
+        long bit = 1L << lane;
+        live |= bit;
+
+        for(int v = 0; v < 3; v++)
+        {
+            long doubt = from.beliefs[v].pack(packedPlaces, packedSuits, packedUnknowns, 0);
+            long mine = packedPlaces[v] & ~doubt;
+            spreadCards(doubt, doubts, v * DECK, bit);
+            spreadCards(mine, holds, v * DECK, bit);
+
+            // A card nobody has played is held, or in doubt to someone.
+            open |= doubt | mine;
+
+            for(int l = 0; l < 4; l++)
+            {
+                spreadCards(packedPlaces[l], places, (4 * v + l) * DECK, bit);
+                spreadCards(packedSuits[l], suits, (4 * v + l) * DECK, bit);
+                spreadCount(packedUnknowns[l], unknowns, (4 * v + l) * BITS, bit);
+            }
+        }
+
+        int taken = 0;
+
+        for(int p = 0; p < 3; p++)
+        {
+            spreadCount(from.tricks(p), tricks, p * BITS, bit);
+            taken += from.tricks(p);
+        }
+
+        int leader = from.order[0];
+        leads[leader] |= bit;
+        left = Game.DEAL - taken;
+        seat = 0;
+
+        // Replay the cards on the table to find which is winning.
+        for(int k = 0, best = -1; k < 3 && from.table[(leader + k) % 3] != null; k++, seat++)
+        {
+            int c = from.table[(leader + k) % 3].ordinal();
+            open |= 1L << c;
+
+            if(k == 0)
+                ledSuits[Rules.SUIT_OF[c]] |= bit;
+
+            if(best < 0 || Rules.beats(Rules.CARDS[c], Rules.CARDS[best]))
+            {
+                if(best >= 0)
+                    winning[best] &= ~bit;
+
+                best = c;
+                winning[c] |= bit;
+
+                for(int j = 0; j < 3; j++)
+                    winningSeats[j] &= ~bit;
+
+                winningSeats[k] |= bit;
+            }
+        }
+    }
+
+    /** Overwrite this batch with a copy of another. */
+    void copy(PlayoutBatch from)
+    {
+        live = from.live;
+        open = from.open;
+        System.arraycopy(from.holds, 0, holds, 0, holds.length);
+        System.arraycopy(from.places, 0, places, 0, places.length);
+        System.arraycopy(from.suits, 0, suits, 0, suits.length);
+        System.arraycopy(from.doubts, 0, doubts, 0, doubts.length);
+        System.arraycopy(from.played, 0, played, 0, played.length);
+        System.arraycopy(from.unknowns, 0, unknowns, 0, unknowns.length);
+        System.arraycopy(from.tricks, 0, tricks, 0, tricks.length);
+        System.arraycopy(from.leads, 0, leads, 0, leads.length);
+        System.arraycopy(from.winning, 0, winning, 0, winning.length);
+        System.arraycopy(from.ledSuits, 0, ledSuits, 0, ledSuits.length);
+        System.arraycopy(from.winningSeats, 0, winningSeats, 0, winningSeats.length);
+        seat = from.seat;
+        left = from.left;
+    }
+
+    /** Return the lanes holding a deal. */
+    long live() { return live; }
+
+    /** Play the same card in every lane, which must be legal in all of them, as the agent's own move is. */
+    void advance(Card c)
+    {
+        for(long m = open; m != 0; m &= m - 1)
+            move[Long.numberOfTrailingZeros(m)] = 0L;
+
+        move[c.ordinal()] = live;
+
+        for(int p = 0; p < 3; p++)
+            movers[p] = seated(p);
+
+        apply();
+    }
+
+    /** Play greedily to the end of the hand in every lane. */
+    void play()
+    {
+        while(left > 0)
+            step();
+    }
+
+    /** Return the total tricks a player took over every lane. */
+    long total(int p)
+    {
+        long total = 0L;
+
+        for(int b = 0; b < BITS; b++)
+            total += (long)Long.bitCount(tricks[p * BITS + b] & live) << b;
+
+        return total;
+    }
+
+    /** Return the tricks a player took in one lane. */
+    int tricks(int lane, int p)
+    {
+        int n = 0;
+
+        for(int b = 0; b < BITS; b++)
+            n |= (int)(tricks[p * BITS + b] >>> lane & 1L) << b;
+
+        return n;
+    }
+
+    /** Play one card in every lane by the greedy strategy. */
+    private void step()
+    {
+        for(int p = 0; p < 3; p++)
+            movers[p] = seated(p);
+
+        // Gather the hand of the player to move in each lane.
+        for(long m = open; m != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+            hand[c] = holds[c] & movers[0] | holds[DECK + c] & movers[1] | holds[2 * DECK + c] & movers[2];
+            move[c] = 0L;
+        }
+
+        if(seat == 0)
+        {
+            for(int p = 0; p < 3; p++)
+                if(movers[p] != 0)
+                    lead(p, movers[p]);
+        }
+        else follow();
+
+        apply();
+    }
+
+    /** Return the lanes in which a player is in the seat to play next. */
+    private long seated(int p) { return leads[(p - seat + 3) % 3] & live; }
+
+    /**
+     * Choose the card of a player leading in some lanes, as Playout does:
+     * the highest card of the first suit, taking trumps first, that neither
+     * opponent is likely to beat in the suit, or failing that the highest
+     * heart, or failing that a card thrown away.
+     */
+    private void lead(int p, long lanes)
+    {
+        chances(p, (p + 1) % 3, rivals[0]);
+        chances(p, (p + 2) % 3, rivals[1]);
+
+        for(int s = Game.NUM_SUITS - 1; s >= 0 && lanes != 0; s--)
+        {
+            // The lanes holding a card of the suit so far, and in which an
+            // opponent is likely to hold a card above the one being looked at.
+            long held = 0L;
+            long above = 0L;
+
+            // Lower cards only matter in lanes yet to find their highest of the suit.
+            for(long m = open & Rules.SUITS[s]; m != 0 && (lanes & ~held) != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                long top = lanes & hand[c] & ~held;
+
+                // Hearts are tried last, so the highest is led whatever the odds.
+                long pick = s == 0 ? top : top & ~above;
+                move[c] |= pick;
+                lanes &= ~pick;
+                held |= hand[c];
+                above |= ~played[c] & (likelyAt(p, (p + 1) % 3, c, rivals[0]) | likelyAt(p, (p + 2) % 3, c, rivals[1]));
+            }
+        }
+
+        throwAway(lanes);
+    }
+
+    /**
+     * Return the lanes in which a player thinks a location likely to hold a
+     * card, as Playout.higherLikely: it might be there, and either is known
+     * to be or passes the chance test in the given lanes of likely.
+     */
+    private long likelyAt(int p, int loc, int c, long[] passes)
+    {
+        long q = places[(4 * p + loc) * DECK + c];
+        long r = places[(4 * p + 3 - p - loc) * DECK + c];
+        long o = places[(4 * p + Game.OUT) * DECK + c];
+        long l1 = (o & passes[5]) | (~o & passes[1]);
+        long l3 = (o & passes[7]) | (~o & passes[3]);
+        return q & (~doubts[p * DECK + c] | (r & l3) | (~r & l1));
+    }
+
+    /** Choose a follower's card, as Playout does. */
+    private void follow()
+    {
+        long lanes = live;
+
+        // The card to beat: the one winning, or in the second seat the card
+        // expected from the last player if it would win.
+        if(seat == 1)
+        {
+            for(long m = open; m != 0; m &= m - 1)
+                expected[Long.numberOfTrailingZeros(m)] = 0L;
+
+            for(int p = 0; p < 3; p++)
+                if(movers[p] != 0)
+                    expect(p, movers[p]);
+
+            long over = beats(expected, winning);
+
+            for(long m = open; m != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                contested[c] = (expected[c] & over) | (winning[c] & ~over);
+            }
+        }
+        else
+        {
+            for(long m = open; m != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                contested[c] = winning[c];
+            }
+        }
+
+        long follow = 0L;
+        long trumps = 0L;
+        long contestedLed = 0L;
+        long contestedTrump = 0L;
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+        {
+            long has = 0L;
+            long con = 0L;
+
+            for(long m = open & Rules.SUITS[s]; m != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                has |= hand[c];
+                con |= contested[c];
+            }
+
+            follow |= has & ledSuits[s];
+            contestedLed |= con & ledSuits[s];
+
+            if(s == Game.TRUMP_INT)
+            {
+                trumps = has;
+                contestedTrump = con;
+            }
+        }
+
+        long ruff = lanes & ~follow & trumps;
+
+        // Beat the favourite by following suit, or failing that by trumping:
+        // with the lowest card of its suit above it, or the lowest trump.
+        long beat = (follow & contestedLed) | (ruff & contestedTrump);
+        long unbeaten = beat;
+
+        for(int s = 0; s < Game.NUM_SUITS && unbeaten != 0; s++)
+        {
+            long below = 0L;
+
+            for(long m = open & Rules.SUITS[s]; m != 0; m ^= Long.highestOneBit(m))
+            {
+                int c = 63 - Long.numberOfLeadingZeros(m);
+                long pick = unbeaten & hand[c] & below;
+                move[c] |= pick;
+                unbeaten &= ~pick;
+                below |= contested[c];
+            }
+        }
+
+        long any = ruff & ~contestedTrump;
+        pickLowest(Game.TRUMP_INT, any);
+
+        // Otherwise throw away the lowest card of the lead suit, or of
+        // any other suit, a trump only if nothing else is left.
+        lanes &= ~(beat & ~unbeaten | any);
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+            pickLowest(s, lanes & follow & ledSuits[s]);
+
+        throwAway(lanes & ~follow);
+    }
+
+    /** Play the lowest card held in each of some lanes, a trump only if nothing else is left. */
+    private void throwAway(long free)
+    {
+        for(int r = Game.SUIT_SIZE - 1; r >= 0 && free != 0; r--)
+            for(int s = 0; s < Game.NUM_SUITS; s++)
+            {
+                int c = TOPS[s] + r;
+
+                if(s == Game.TRUMP_INT || (open & 1L << c) == 0) continue;
+
+                long pick = free & hand[c];
+                move[c] |= pick;
+                free &= ~pick;
+            }
+
+        pickLowest(Game.TRUMP_INT, free);
+    }
+
+    /** Play the lowest card of a suit held in each of some lanes. */
+    private void pickLowest(int s, long lanes)
+    {
+        for(long m = open & Rules.SUITS[s]; m != 0 && lanes != 0; m ^= Long.highestOneBit(m))
+        {
+            int c = 63 - Long.numberOfLeadingZeros(m);
+            long pick = lanes & hand[c];
+            move[c] |= pick;
+            lanes &= ~pick;
+        }
+    }
+
+    /**
+     * Fill expected, in the lanes in which a player is in the second seat,
+     * with the card they expect the last player to play, as Playout.likely:
+     * the highest card of the lead suit the player thinks they are likely
+     * to hold, or failing that the highest such trump.
+     */
+    private void expect(int p, long lanes)
+    {
+        int next = (p + 1) % 3;
+        chanced = false;
+
+        long found = 0L;
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+            if((lanes & ledSuits[s]) != 0)
+                found |= expect(p, next, s, lanes & ledSuits[s]);
+
+        expect(p, next, Game.TRUMP_INT, lanes & ~found & ~ledSuits[Game.TRUMP_INT]);
+    }
+
+    /** Fill expected in some lanes with the highest card of a suit likely to be in a location, and return the lanes found. */
+    private long expect(int p, int loc, int s, long lanes)
+    {
+        int at = (4 * p + loc) * DECK;
+        int other = (4 * p + 3 - p - loc) * DECK;
+        int out = (4 * p + Game.OUT) * DECK;
+        long cards = open & Rules.SUITS[s];
+        long gate = 0L;
+
+        for(long m = cards; m != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+            gate |= suits[at + c] & ~played[c];
+        }
+
+        lanes &= gate;
+        long found = 0L;
+
+        if(lanes != 0 && !chanced)
+        {
+            chances(p, loc, likely);
+            chanced = true;
+        }
+
+        for(long m = cards; m != 0 && lanes != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+            long q = places[at + c];
+            long r = places[other + c];
+            long o = places[out + c];
+
+            // Pick out the chance test passed by the places the card might
+            // be in, in each lane.
+            long l0 = (o & likely[4]) | (~o & likely[0]);
+            long l1 = (o & likely[5]) | (~o & likely[1]);
+            long l2 = (o & likely[6]) | (~o & likely[2]);
+            long l3 = (o & likely[7]) | (~o & likely[3]);
+            long pass = (q & ((r & l3) | (~r & l1))) | (~q & ((r & l2) | (~r & l0)));
+
+            long pick = lanes & doubts[p * DECK + c] & ~played[c] & pass;
+            expected[c] |= pick;
+            lanes &= ~pick;
+            found |= pick;
+        }
+
+        return found;
+    }
+
+    /**
+     * Fill an array with the lanes in which a player takes a card in doubt
+     * to be likely in a location, by the other places it might be: bit 0 of
+     * the index for that location, bit 1 for the third player and bit 2 for
+     * the discards. As in BeliefState.chance, a card is likely if the location's
+     * share of the unknown cards where it might be is over Raptor.POSITIVE,
+     * three quarters, which for counts means four times the location's is
+     * more than three times the total. The viewer's own count is always 0.
+     */
+    private void chances(int p, int loc, long[] likely)
+    {
+        int base = 4 * p * BITS;
+        triple(base + loc * BITS, threefold[0]);
+        triple(base + (3 - p - loc) * BITS, threefold[1]);
+        triple(base + Game.OUT * BITS, threefold[2]);
+
+        // Three times each total, as the sum of three times its counts.
+        for(int code = 1; code < 8; code++)
+            add(sums[code & (code - 1)], threefold[Integer.numberOfTrailingZeros(code)], sums[code]);
+
+        System.arraycopy(unknowns, base + loc * BITS, fourfold, 2, BITS);
+
+        for(int code = 0; code < 8; code++)
+            likely[code] = greater(fourfold, sums[code]);
+    }
+
+    /** Set a number to three times a count from the unknowns, as the count plus twice it. */
+    private void triple(int at, long[] into)
+    {
+        long carry = 0L;
+
+        for(int b = 0; b < WIDE; b++)
+        {
+            long x = b < BITS ? unknowns[at + b] : 0L;
+            long y = b > 0 && b <= BITS ? unknowns[at + b - 1] : 0L;
+            into[b] = x ^ y ^ carry;
+            carry = (x & y) | (carry & (x ^ y));
+        }
+    }
+
+    /** Set a sum to the sum of two numbers. */
+    private static void add(long[] x, long[] y, long[] sum)
+    {
+        long carry = 0L;
+
+        for(int b = 0; b < WIDE; b++)
+        {
+            sum[b] = x[b] ^ y[b] ^ carry;
+            carry = (x[b] & y[b]) | (carry & (x[b] ^ y[b]));
+        }
+    }
+
+    /** Return the lanes in which one number is greater than another. */
+    private static long greater(long[] x, long[] y)
+    {
+        long more = 0L;
+        long same = -1L;
+
+        for(int b = WIDE - 1; b >= 0; b--)
+        {
+            more |= same & x[b] & ~y[b];
+            same &= ~(x[b] ^ y[b]);
+        }
+
+        return more;
+    }
+
+    /**
+     * Return the lanes in which the challenging card beats the winning one,
+     * as Rules.beats: by a higher card of its suit, or by any trump if it
+     * isn't a trump itself.
+     */
+    private long beats(long[] challenger, long[] winner)
+    {
+        long beaten = 0L;
+        long plain = 0L;
+
+        for(long m = open & ~Rules.SUITS[Game.TRUMP_INT]; m != 0; m &= m - 1)
+            plain |= winner[Long.numberOfTrailingZeros(m)];
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+        {
+            long below = s == Game.TRUMP_INT ? plain : 0L;
+
+            for(long m = open & Rules.SUITS[s]; m != 0; m ^= Long.highestOneBit(m))
+            {
+                int c = 63 - Long.numberOfLeadingZeros(m);
+                beaten |= challenger[c] & below;
+                below |= winner[c];
+            }
+        }
+
+        return beaten;
+    }
+
+    /**
+     * Play the card chosen in each lane, by the players in movers, and
+     * update the beliefs as Playout.advance does.
+     */
+    private void apply()
+    {
+        long trump = 0L;
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+        {
+            long same = 0L;
+
+            for(long m = open & Rules.SUITS[s]; m != 0; m &= m - 1)
+                same |= move[Long.numberOfTrailingZeros(m)];
+
+            voids[s] = same;
+
+            if(s == Game.TRUMP_INT)
+                trump = same;
+        }
+
+        // A player who neither follows suit nor trumps is taken to have none of the lead suit.
+        long shown = 0L;
+
+        for(int s = 0; s < Game.NUM_SUITS; s++)
+        {
+            long same = voids[s];
+            voids[s] = seat == 0 ? 0L : ledSuits[s] & ~same & ~trump;
+            shown |= voids[s];
+
+            if(seat == 0)
+                ledSuits[s] = same;
+        }
+
+        for(int v = 0; v < 3; v++)
+        {
+            long doubted = 0L;
+
+            for(long m = open; m != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                doubted |= move[c] & doubts[v * DECK + c];
+            }
+
+            for(int p = 0; p < 3; p++)
+            {
+                if(p == v || movers[p] == 0) continue;
+
+                decrement(unknowns, (4 * v + p) * BITS, doubted & movers[p]);
+
+                if((shown & movers[p]) == 0) continue;
+
+                int at = (4 * v + p) * DECK;
+
+                for(int s = 0; s < Game.NUM_SUITS; s++)
+                {
+                    long gone = voids[s] & movers[p];
+
+                    if(gone == 0) continue;
+
+                    for(long m = open & Rules.SUITS[s]; m != 0; m &= m - 1)
+                    {
+                        int c = Long.numberOfTrailingZeros(m);
+                        suits[at + c] &= ~gone;
+                        places[at + c] &= ~gone;
+                    }
+                }
+            }
+        }
+
+        for(long m = open; m != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+            long kept = ~move[c];
+            played[c] |= move[c];
+            holds[c] &= kept;
+            holds[DECK + c] &= kept;
+            holds[2 * DECK + c] &= kept;
+        }
+
+        // Follow the card winning the trick.
+        if(seat == 0)
+        {
+            for(long m = open; m != 0; m &= m - 1)
+            {
+                int c = Long.numberOfTrailingZeros(m);
+                winning[c] = move[c];
+            }
+
+            winningSeats[0] = live;
+            winningSeats[1] = winningSeats[2] = 0L;
+        }
+        else
+        {
+            long over = beats(move, winning);
+
+            if(over != 0)
+            {
+                for(long m = open; m != 0; m &= m - 1)
+                {
+                    int c = Long.numberOfTrailingZeros(m);
+                    winning[c] = (winning[c] & ~over) | (move[c] & over);
+                }
+
+                for(int k = 0; k < seat; k++)
+                    winningSeats[k] &= ~over;
+
+                winningSeats[seat] = over;
+            }
+        }
+
+        if(++seat < 3)
+            return;
+
+        // The trick is over: the winner takes it and leads the next.
+        Arrays.fill(winners, 0L);
+
+        for(int k = 0; k < 3; k++)
+            for(int p = 0; p < 3; p++)
+                winners[(p + k) % 3] |= winningSeats[k] & leads[p];
+
+        for(int p = 0; p < 3; p++)
+        {
+            leads[p] = winners[p];
+            increment(tricks, p * BITS, winners[p]);
+        }
+
+        // Cards played in every lane are out of play for good.
+        for(long m = open; m != 0; m &= m - 1)
+        {
+            int c = Long.numberOfTrailingZeros(m);
+
+            if(played[c] == live)
+                open &= ~(1L << c);
+        }
+
+        seat = 0;
+        left--;
+    }
+
+    /** Add one to a count in some lanes. */
+    private static void increment(long[] counts, int at, long lanes)
+    {
+        for(int b = 0; b < BITS && lanes != 0; b++)
+        {
+            long digit = counts[at + b];
+            counts[at + b] = digit ^ lanes;
+            lanes &= digit;
+        }
+    }
+
+    /** Take one from a count in some lanes. */
+    private static void decrement(long[] counts, int at, long lanes)
+    {
+        for(int b = 0; b < BITS && lanes != 0; b++)
+        {
+            long digit = counts[at + b];
+            counts[at + b] = digit ^ lanes;
+            lanes &= ~digit;
+        }
+    }
+
+    /** Set a lane in the entry of each card of a set. */
+    private static void spreadCards(long cards, long[] into, int at, long lane)
+    {
+        for(; cards != 0; cards &= cards - 1)
+            into[at + Long.numberOfTrailingZeros(cards)] |= lane;
+    }
+
+    /** Write a count into a lane of its digits. */
+    private static void spreadCount(int count, long[] into, int at, long lane)
+    {
+        for(int b = 0; b < BITS; b++)
+            if((count >>> b & 1) != 0)
+                into[at + b] |= lane;
+    }
+}
@@ -14,7 +14,23 @@ public class RandomAgent implements MSWAgent
     public static final int RIGHT = 2;
 
     private List<Card> hand;
-    private Random rand = new Random();
+    private Random rand;
+
+    /**
+     * Creates an agent with an unseeded random stream.
+     */
+    public RandomAgent()
+    {
+        rand = new Random();
+    }
+
+    /**
+     * Creates an agent whose moves (and name) are reproducible from a seed.
+     */
+    public RandomAgent(long seed)
+    {
+        rand = new Random(seed);
+    }
 
     /**
      * Tells the agent the names of the competing agents, and their relative position.
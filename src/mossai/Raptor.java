@@ -1,54 +1,190 @@
 package mossai;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** An agent (hopefully) capable of intelligently playing Moss Side Whist. */
-public class Raptor implements MSWAgent
+public class Raptor implements MSWAgent, SearchStats
 {
     /** Bias constant for Monte Carlo play outs. */
     static final double BIAS;
     
-    /** Whether to treat draws as wins in Monte Carlo play outs. */
-    static final boolean DRAW_WINS;
-    
-    /** How long to keep running Monte Carlo on samples each turn, in milliseconds. */
+    /**
+     * How long a searching agent may take over each turn, in milliseconds:
+     * the part of playCard's time limit a call may use without counting as
+     * a near miss.
+     */
     static final int SEARCH_TIME;
     
-    /** Number of play outs to sample in each Monte Carlo search. */
-    static final int MC_SAMPLES;
+    /** The least time to leave between a search's deadline and the time limit, in milliseconds. */
+    static final int MIN_MARGIN;
     
     /** The probability threshold above which to treat as certain that an opponent possesses a card. */
     static final double POSITIVE;
     
-    private static String ME;
+    /** The number of nodes each search tree has room for, unless told otherwise. */
+    static final int TREE_NODES;
+    
+    /** The number of positions each agent's transposition table has room for. */
+    static final int TABLE_SLOTS;
+    
+    /** The number of tricks left, counting the one under way, at which to stop growing trees and sample batches of deals. */
+    static final int BATCH_TRICKS;
+    
+    /** The number of tricks left at which to solve each sampled deal exactly rather than play it out greedily. */
+    static final int SOLVE_TRICKS;
+    
+    /** The number of positions the endgame solvers' shared table has room for. */
+    static final int SOLVE_SLOTS;
+    
+    /** The most deals of the hidden cards to list and evaluate each of once, rather than draw at random, in the last tricks. */
+    static final int ENUMERATE_DEALS;
     
     static
     {
         BIAS = Math.sqrt(2.0);
-        DRAW_WINS = false;
-        SEARCH_TIME = 190;
-        MC_SAMPLES = 10;
+        SEARCH_TIME = (int)(Watchdog.NEAR_MISS * Watchdog.LIMITS[Watchdog.PLAY_CARD]);
+        MIN_MARGIN = 5;
         POSITIVE = 0.75;
-        ME = "Clever Girl";
+        TREE_NODES = 1 << 18;
+        TABLE_SLOTS = 1 << 18;
+        BATCH_TRICKS = 4;
+        SOLVE_TRICKS = 3;
+        SOLVE_SLOTS = 1 << 16;
+        ENUMERATE_DEALS = 1 << 10;
     }
     
+    /**
+     * Threads shared by every agent's parallel searches. The pool grows to
+     * meet demand, so a search's helpers start at once rather than queueing.
+     */
+    private static final ExecutorService SEARCH_POOL = Executors.newCachedThreadPool(r ->
+    {
+        Thread t = new Thread(r, "raptor search");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    /** The name this agent gives itself. */
+    private final String name;
+    
+    /** The agent's own random stream, used for sampling hidden cards. */
+    private final Random rand;
+    
     private String left;
     private String right;
 	
-	private HashMap<String, Integer> positions;
-	private HashMap<String, Integer> totalScores;
-	private int[] handScores;
+	/** The agent's place relative to the leader this hand. */
+	private int order;
     
     private GameState state;
     
-    public Raptor()
+    /** The time allowed for each move in nanoseconds, or 0 to play greedily without searching. */
+    private final long budget;
+    
+    /** The furthest recent searches have overrun their deadlines, in nanoseconds. */
+    private long jitter;
+    
+    /** Search iterations completed for the last move, or -1 if it wasn't searched. */
+    private volatile int iterations = -1;
+    
+    /** Search iterations kept from earlier moves' trees for the last move. */
+    private volatile long carried;
+    
+    /** The ordinals of the cards played since the last search, which lead from its root to the next. */
+    private final byte[] seen = new byte[3 * Game.DEAL];
+    private int seenCount;
+    
+    /** Whether the trees are left from an earlier hand. */
+    private boolean stale = true;
+    
+    /** Whether the threads share one tree rather than each growing a tree of their own. */
+    private final boolean shared;
+    
+    /**
+     * One searcher per thread searching each move. The first runs on the
+     * thread calling playCard and the rest on the shared pool.
+     */
+    private final Searcher[] searchers;
+    
+    /** The values of positions, shared by every searcher's tree, or null when playing greedily. */
+    private final TranspositionTable table;
+    
+    /**
+     * Bounds on the tricks to be had from positions with every hand known,
+     * shared by every searcher's endgame solver, or null when playing
+     * greedily. They hold whatever hand the position comes from, so the
+     * table is never cleared.
+     */
+    private final TranspositionTable solved;
+    
+    /** The values of the cards over every searcher. */
+    private final Tally total = new Tally();
+    
+    public Raptor() { this("Clever Girl", new Random().nextLong()); }
+    
+    /** Create an agent whose play is reproducible from a seed. */
+    public Raptor(long seed) { this("Clever Girl", seed); }
+    
+    public Raptor(String name, long seed) { this(name, seed, 0); }
+    
+    /**
+     * Create an agent that searches for up to a given time each move.
+     * Searches stop on time rather than after a set amount of work, so play
+     * is no longer reproducible from the seed.
+     * @param searchTime milliseconds per move, usually SEARCH_TIME, or 0 to play greedily
+     */
+    public Raptor(String name, long seed, int searchTime) { this(name, seed, searchTime, 1, false); }
+    
+    /**
+     * Create an agent that searches on several threads at once for up to a
+     * given time each move. Either each thread grows a tree of its own and
+     * the visits of the moves are pooled at the deadline (root parallel), or
+     * the threads all grow one shared tree (tree parallel), which searches
+     * deeper in the same memory.
+     * @param searchTime milliseconds per move, usually SEARCH_TIME, or 0 to play greedily
+     * @param threads the number of threads to search on
+     * @param shared whether the threads share trees
+     */
+    public Raptor(String name, long seed, int searchTime, int threads, boolean shared)
+    {
+        this(name, seed, searchTime, threads, shared, TREE_NODES);
+    }
+    
+    /**
+     * Create a searching agent whose trees have room for a given number of
+     * nodes, for long searches. Trees of more than NodeStore.OFF_HEAP nodes
+     * are kept off the heap.
+     * @param treeNodes the number of nodes in each tree
+     */
+    public Raptor(String name, long seed, int searchTime, int threads, boolean shared, int treeNodes)
 	{
-		positions = new HashMap(3);
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		totalScores = new HashMap(3);
-////////////////////////////////////////////////////////////////////////////////
+		this.name = name;
+		rand = new Random(seed);
+		budget = searchTime * 1000000L;
+		this.shared = shared;
+		searchers = new Searcher[Math.max(threads, 1)];
+		
+		// Greedy play needs no room for a tree.
+		int nodes = budget == 0 ? 1 : treeNodes;
+		table = budget == 0 ? null : new TranspositionTable(TABLE_SLOTS);
+		solved = budget == 0 ? null : new TranspositionTable(SOLVE_SLOTS);
+		searchers[0] = new Searcher(rand, new InfoSetTree(nodes, table), solved);
+		
+		for(int i = 1; i < searchers.length; i++)
+			searchers[i] = new Searcher(new Random(rand.nextLong()), shared ? searchers[0].tree : new InfoSetTree(nodes, table), solved);
 	}
     
     @Override
@@ -61,32 +197,19 @@ public class Raptor implements MSWAgent
     @Override
     public void seeHand(List<Card> deal, int order)
     {
-		positions.put(ME, order);
-		positions.put(left, (order+1)%3);
-		positions.put(right, (order+2)%3);
-		
+		this.order = order;
 		state = new GameState(order, deal);
-/////////////////////////////// DEBUGGING //////////////////////////////////////	
-		for(String p : positions.keySet())
-			if(totalScores.get(p) == null)
-				if(positions.get(p) == 0)
-					totalScores.put(p, -8);
-				else
-					totalScores.put(p, -4);
-			else
-				if(positions.get(p) == 0)
-					totalScores.put(p, totalScores.get(p)-8);
-				else
-					totalScores.put(p, totalScores.get(p)-4);
+		stale = true;
+		seenCount = 0;
 		
-		handScores = new int[] {-8, -4, -4};
-////////////////////////////////////////////////////////////////////////////////
+		if(table != null)
+			table.clear();
     }
 
     @Override
     public Card[] discard()
     {
-        if(positions.get(ME) == 0)
+        if(order == 0)
         {
             Card[] chosen = new Card[4];
 
@@ -98,81 +221,509 @@ public class Raptor implements MSWAgent
         else return new Card[4];
     }
 	
+    /**
+     * Play the card chosen most often by information set Monte Carlo tree
+     * search, drawing a fresh deal of the hidden cards every iteration, until
+     * a deadline, on as many threads as the agent was given. The greedy choice
+     * stands until the first iteration finishes, so there is always a move to
+     * return if the search is interrupted.
+     * The deadline leaves a margin for the slowest recent searches to have
+     * run over, and an iteration isn't started unless the average one would
+     * finish in time. A helper that hasn't finished by the deadline is
+     * abandoned, and its tree left out; helpers search a copy of the state,
+     * so one still winding down never sees the cards played after.
+     * Each tree is kept for the next move, moved down to the information set
+     * the cards played in between lead to, so its iterations aren't wasted.
+     * In the last few tricks, where drawing a deal costs more than playing it
+     * out, every move is instead played out against the same batches of
+     * deals, as in searchBatches, and in the very last solved exactly
+     * against each deal. Once few enough deals are left possible, each is
+     * evaluated once instead of drawing the same ones over and over.
+     */
     @Override
     public Card playCard()
     {
-	
-        Card best = null;
         long start = System.nanoTime();
-/*     
-        // A record of how many times each card was recommended by a Monte Carlo search.
-        HashMap<Card, Integer> results = new HashMap();
+        Card best = state.greedyEval();
+        
+        if(budget == 0)
+            return best;
         
-        while(System.nanoTime() - start < SEARCH_TIME * 1000000)
+        long deadline = start + budget - margin();
+        total.clear();
+        
+        int left = Game.DEAL - state.tricks(0) - state.tricks(1) - state.tricks(2);
+        
+        if(left <= BATCH_TRICKS)
         {
-            Card c = state.monteCarlo();
+            // The trees aren't kept up with, so they start afresh if searched again.
+            List<int[]> deals = new ArrayList<>();
             
-            if(results.get(c) == null)
-                results.put(c, 1);
+            // In a random order, so those evaluated by the deadline are a fair sample of the rest.
+            if(state.deals(ENUMERATE_DEALS, deals) > 0)
+                Collections.shuffle(deals, rand);
             else
-                results.put(c, results.get(c) + 1);
+                deals = null;
+            
+            searchBatches(deadline, left <= SOLVE_TRICKS, deals);
+            stale = true;
+        }
+        else
+        {
+            byte[] played = stale ? null : Arrays.copyOf(seen, seenCount);
+            
+            if(shared) searchShared(deadline, played);
+            else searchRoots(deadline, played);
+            
+            stale = false;
         }
         
-        for(Card c : results.keySet())
-            if(best == null || results.get(c) > results.get(best))
-                best = c;
-*/        
+        seenCount = 0;
         
-        // Temp version.
-        best = state.greedyEval();
+        best = best(best);
         
+        // Remember the overrun, forgetting old ones gradually so one stall doesn't cost every later move.
+        jitter = Math.max(System.nanoTime() - deadline, jitter - jitter / 8);
+        iterations = total.iterations;
+        carried = total.carried;
         return best;
     }
-
+    
+    /**
+     * Grow a tree of its own on every thread until the deadline, pooling the
+     * values found.
+     * @param played the cards played since the trees were last searched, or null to start them afresh
+     */
+    private void searchRoots(long deadline, byte[] played)
+    {
+        // A copy, since a helper abandoned at the deadline may still be reading it when the next card is seen.
+        GameState root = state.copy();
+        List<Future<Tally>> helpers = new ArrayList<>(searchers.length - 1);
+        settle();
+        
+        // Move every tree down here, before any helper can be cancelled
+        // unstarted, so none is left rooted at an older move.
+        for(Searcher searcher : searchers)
+            total.carried += searcher.reuse(played);
+        
+        for(int i = 1; i < searchers.length; i++)
+        {
+            Searcher helper = searchers[i];
+            helpers.add(SEARCH_POOL.submit(() ->
+            {
+                synchronized(helper)
+                {
+                    Tally tally = new Tally();
+                    tally.iterations = helper.search(root, deadline);
+                    helper.tree.tally(tally.totals, tally.counts);
+                    return tally;
+                }
+            }));
+        }
+        
+        total.iterations = searchers[0].search(root, deadline);
+        searchers[0].tree.tally(total.totals, total.counts);
+        
+        for(Future<Tally> helper : helpers)
+        {
+            Tally tally = await(helper, deadline, helpers);
+            
+            if(tally != null)
+                total.add(tally);
+        }
+    }
+    
+    /**
+     * Grow one tree on every thread at once until the deadline.
+     * @param played the cards played since the tree was last searched, or null to start it afresh
+     */
+    private void searchShared(long deadline, byte[] played)
+    {
+        GameState root = state.copy();
+        InfoSetTree tree = searchers[0].tree;
+        List<Future<?>> helpers = new ArrayList<>(searchers.length - 1);
+        settle();
+        total.carried = searchers[0].reuse(played);
+        
+        for(int i = 1; i < searchers.length; i++)
+        {
+            Searcher helper = searchers[i];
+            helpers.add(SEARCH_POOL.submit(() -> helper.search(root, deadline)));
+        }
+        
+        searchers[0].search(root, deadline);
+        
+        for(Future<?> helper : helpers)
+            await(helper, deadline, helpers);
+        
+        tree.tally(total.totals, total.counts);
+        total.iterations = (int)(tree.visits() - total.carried);
+    }
+    
+    /**
+     * Play every legal move out greedily against batches of deals drawn on
+     * every thread until the deadline, pooling the tricks each move took.
+     * Each deal is drawn once for all the moves, and the moves are played out
+     * over a batch of deals at a time by PlayoutBatch.
+     * @param exact whether to solve each deal exactly instead, with every hand known
+     * @param deals every deal possible, to be shared out between the threads and evaluated once each, or null to draw them
+     */
+    private void searchBatches(long deadline, boolean exact, List<int[]> deals)
+    {
+        GameState root = state.copy();
+        List<Future<Tally>> helpers = new ArrayList<>(searchers.length - 1);
+        settle();
+        
+        for(int i = 0; i < searchers.length; i++)
+            searchers[i].share(deals, i, searchers.length);
+        
+        for(int i = 1; i < searchers.length; i++)
+        {
+            Searcher helper = searchers[i];
+            helpers.add(SEARCH_POOL.submit(() ->
+            {
+                Tally tally = new Tally();
+                tally.iterations = exact ? helper.solve(root, deadline, tally) : helper.sample(root, deadline, tally);
+                return tally;
+            }));
+        }
+        
+        total.iterations = exact ? searchers[0].solve(root, deadline, total) : searchers[0].sample(root, deadline, total);
+        
+        for(Future<Tally> helper : helpers)
+        {
+            Tally tally = await(helper, deadline, helpers);
+            
+            if(tally != null)
+                total.add(tally);
+        }
+    }
+    
+    /**
+     * Wait for any helpers abandoned on the last move to notice they were
+     * cancelled, which they do within an iteration, so no tree is reset
+     * while they are still in it. A helper holds its searcher's lock for as
+     * long as it is searching.
+     */
+    private void settle()
+    {
+        for(Searcher searcher : searchers)
+            synchronized(searcher) {}
+    }
+    
+    /**
+     * Wait until the deadline at most for a helper's result, cancelling it if
+     * it runs late. Returns null if it didn't finish, and cancels every helper
+     * if this thread is interrupted.
+     */
+    private static <T> T await(Future<T> helper, long deadline, List<? extends Future<?>> all)
+    {
+        try
+        {
+            return helper.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+        }
+        catch(TimeoutException | CancellationException | ExecutionException e)
+        {
+            helper.cancel(true);
+            return null;
+        }
+        catch(InterruptedException e)
+        {
+            for(Future<?> h : all)
+                h.cancel(true);
+            
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    /**
+     * Return the card visited most over every searcher's tree, the better on
+     * average of any tied, or the given card if none has been visited.
+     */
+    private Card best(Card fallback)
+    {
+        Card best = fallback;
+        int most = 0;
+        double value = -1.0;
+        
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+        {
+            int visits = total.counts[c];
+            
+            if(visits > most || (visits == most && visits > 0 && total.totals[c] / visits > value))
+            {
+                best = Rules.CARDS[c];
+                most = visits;
+                value = total.totals[c] / visits;
+            }
+        }
+        
+        return best;
+    }
+    
+    /** Return the time to leave between a search's deadline and the limit, in nanoseconds. */
+    private long margin()
+    {
+        return Math.min(MIN_MARGIN * 1000000L + 2 * jitter, budget / 2);
+    }
+    
+    /** Return the number of search iterations completed for the last move, or deals drawn if it was sampled, or -1 if it wasn't searched. */
     @Override
-    public void seeCard(Card card, String agent)
-	{
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		System.out.println("seeCard given move by: " + agent);
-		System.out.println(agent + " order set " + positions.get(agent) + " in Raptor.");
-		if(positions.get(agent) != state.active())
-			System.out.println("BIG OBVIOUS PRINT THAT IS EASY TO SEE");
-////////////////////////////////////////////////////////////////////////////////
-		state.advance(card);
-	}
-
+    public int iterations() { return iterations; }
+    
     @Override
-    public void seeResult(String winner)
+    public long carried() { return carried; }
+    
+    /** Return the agent's transposition table, or null if it plays greedily. */
+    TranspositionTable table() { return table; }
+    
+    @Override
+    public void seeCard(Card card, String agent)
     {
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		totalScores.put(winner, totalScores.get(winner) + 1);
-		handScores[positions.get(winner)]++;
-////////////////////////////////////////////////////////////////////////////////
+        state.advance(card);
+        seen[seenCount++] = (byte)card.ordinal();
     }
 
     @Override
-    public void seeScore(Map<String, Integer> scoreboard)
-    {
-/////////////////////////////// DEBUGGING //////////////////////////////////////
-		System.out.println();
-		
-		System.out.println("Hand scores in Raptor:");
-		for(int i : handScores)
-			System.out.println(i);
-		
-		System.out.println();
-		
-		System.out.println("Hand scores in GameState:");
-			int[] gsScores = state.getScores();
-			for(int i : gsScores)
-				System.out.println(i);
-		
-		System.out.println();
-		for(String p : totalScores.keySet())
-			System.out.println(p + " score in Raptor: " + totalScores.get(p));
-////////////////////////////////////////////////////////////////////////////////
-    }
+    public void seeResult(String winner) {}
 
     @Override
-    public String sayName() { return ME; }
-}
\ No newline at end of file
+    public void seeScore(Map<String, Integer> scoreboard) {}
+
+    @Override
+    public String sayName() { return name; }
+    
+    /**
+     * The search run by one thread, with its own random stream and working
+     * space, on a tree of its own or one shared with the other searchers.
+     */
+    private static final class Searcher
+    {
+        private final Random rand;
+        final InfoSetTree tree;
+        
+        /** Working space for iterations, made once for each hand. */
+        private InfoSetTree.Scratch scratch;
+        
+        /** The deals drawn for sampling, and a copy for playing each move out, made when first needed. */
+        private PlayoutBatch batch;
+        private PlayoutBatch work;
+        
+        /** Solves the deals drawn in the last tricks. */
+        private final EndgameSolver solver;
+        
+        /**
+         * The deals listed for this searcher to evaluate in the last tricks,
+         * or null to draw them at random: every step-th from the next.
+         */
+        private List<int[]> deals;
+        private int next;
+        private int step;
+        
+        /** The running average time of one search iteration, of one batch of samples, and of solving one deal, in nanoseconds. */
+        private double iterationTime;
+        private double batchTime;
+        private double solveTime;
+        
+        Searcher(Random rand, InfoSetTree tree, TranspositionTable solved)
+        {
+            this.rand = rand;
+            this.tree = tree;
+            solver = solved == null ? null : new EndgameSolver(solved);
+        }
+        
+        /**
+         * Get the tree ready for a new move: move it down by the cards played
+         * since it was searched, or empty it if they are null. Returns the
+         * iterations kept.
+         */
+        long reuse(byte[] played)
+        {
+            if(played != null)
+                return tree.promote(played, played.length);
+            
+            tree.reset();
+            return 0;
+        }
+        
+        /** Run iterations on the tree until a deadline or an interruption, and return how many. */
+        synchronized int search(GameState state, long deadline)
+        {
+            int done = 0;
+            
+            ready(state);
+            
+            for(long now = System.nanoTime(); now + iterationTime < deadline && !Thread.currentThread().isInterrupted(); )
+            {
+                tree.iterate(state, rand, scratch);
+                done++;
+                long end = System.nanoTime();
+                iterationTime = average(iterationTime, end - now);
+                now = end;
+            }
+            
+            return done;
+        }
+        
+        /** Give the searcher its share of a list of deals, or null to draw deals at random. */
+        synchronized void share(List<int[]> deals, int first, int step)
+        {
+            this.deals = deals;
+            next = first;
+            this.step = step;
+        }
+        
+        /**
+         * Fill batches with deals until a deadline, an interruption or the
+         * end of the searcher's share, play each legal move out over every
+         * batch, and add the tricks they took to a tally. Returns the number
+         * of deals evaluated.
+         */
+        synchronized int sample(GameState state, long deadline, Tally tally)
+        {
+            int done = 0;
+            ready(state);
+            
+            if(batch == null)
+            {
+                batch = new PlayoutBatch();
+                work = new PlayoutBatch();
+            }
+            
+            int me = state.active();
+            int n = state.moves(scratch.moves);
+            
+            for(long now = System.nanoTime(); now + batchTime < deadline && !Thread.currentThread().isInterrupted(); )
+            {
+                batch.clear();
+                int lanes = 0;
+                
+                while(lanes < PlayoutBatch.LANES && draw(state))
+                    batch.load(lanes++, scratch.deal);
+                
+                if(lanes == 0)
+                    break;
+                
+                for(int i = 0; i < n; i++)
+                {
+                    work.copy(batch);
+                    work.advance(scratch.moves[i]);
+                    work.play();
+                    
+                    int c = scratch.moves[i].ordinal();
+                    tally.totals[c] += work.total(me) / (double)Game.DEAL;
+                    tally.counts[c] += lanes;
+                }
+                
+                done += lanes;
+                long end = System.nanoTime();
+                batchTime = average(batchTime, end - now);
+                now = end;
+            }
+            
+            return done;
+        }
+        
+        /**
+         * Take deals until a deadline, an interruption or the end of the
+         * searcher's share, solve each legal move exactly against each, and
+         * add the tricks they are sure of to a tally. Returns the number of
+         * deals evaluated.
+         */
+        synchronized int solve(GameState state, long deadline, Tally tally)
+        {
+            int done = 0;
+            ready(state);
+            int n = state.moves(scratch.moves);
+            
+            for(long now = System.nanoTime(); now + solveTime < deadline && !Thread.currentThread().isInterrupted(); )
+            {
+                if(!draw(state))
+                    break;
+                
+                solver.load(scratch.deal);
+                
+                for(int i = 0; i < n; i++)
+                {
+                    int c = scratch.moves[i].ordinal();
+                    tally.totals[c] += solver.solve(c) / (double)Game.DEAL;
+                    tally.counts[c]++;
+                }
+                
+                done++;
+                long end = System.nanoTime();
+                solveTime = average(solveTime, end - now);
+                now = end;
+            }
+            
+            return done;
+        }
+        
+        /**
+         * Fill the working deal with the next of the searcher's share of
+         * deals, or one drawn at random if there is no list. Returns false
+         * once the share is used up.
+         */
+        private boolean draw(GameState state)
+        {
+            if(deals == null)
+                scratch.deal.determinize(state, rand);
+            else if(next < deals.size())
+            {
+                scratch.deal.deal(state, deals.get(next));
+                next += step;
+            }
+            else return false;
+            
+            return true;
+        }
+        
+        /** Make the working space for a state if there is none for its hand. */
+        private void ready(GameState state)
+        {
+            if(scratch == null || !scratch.fits(state))
+                scratch = new InfoSetTree.Scratch(state);
+        }
+        
+        /** Add the time a piece of work took to its running average. */
+        private static double average(double mean, long nanos)
+        {
+            return mean == 0 ? nanos : 0.875 * mean + 0.125 * nanos;
+        }
+    }
+    
+    /**
+     * The values of the cards found in searches for one move: the total
+     * reward and the number of visits of each card at the root, by ordinal.
+     * Each helper fills a tally of its own, so one abandoned at a deadline
+     * can't disturb the next move.
+     */
+    private static final class Tally
+    {
+        final double[] totals = new double[Game.DECK_SIZE];
+        final int[] counts = new int[Game.DECK_SIZE];
+        int iterations;
+        long carried;
+        
+        void clear()
+        {
+            Arrays.fill(totals, 0.0);
+            Arrays.fill(counts, 0);
+            iterations = 0;
+            carried = 0;
+        }
+        
+        void add(Tally other)
+        {
+            for(int c = 0; c < Game.DECK_SIZE; c++)
+            {
+                totals[c] += other.totals[c];
+                counts[c] += other.counts[c];
+            }
+            
+            iterations += other.iterations;
+            carried += other.carried;
+        }
+    }
+}
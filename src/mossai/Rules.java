@@ -0,0 +1,103 @@
+package mossai;
+
+/**
+ * Precomputed tables for resolving tricks, shared by the engine and the
+ * agents. Cards are indexed by their ordinal and suits by theirs, so a hand
+ * fits in a long with bit i set for the card of ordinal i.
+ */
+final class Rules
+{
+    /** Every card, by ordinal. */
+    static final Card[] CARDS = Card.values();
+
+    /** The suit ordinal of each card, by ordinal. */
+    static final int[] SUIT_OF = new int[Game.DECK_SIZE];
+
+    /** The cards of each suit as a hand, by suit ordinal. */
+    static final long[] SUITS = new long[4];
+
+    /**
+     * For each lead suit and challenging card, the cards it beats.
+     * BEATS[lead][a] has bit b set if card a wins a trick over card b when
+     * the lead suit is lead.
+     */
+    static final long[][] BEATS = new long[4][Game.DECK_SIZE];
+
+    /**
+     * The strength of each card in a trick, by lead suit: trumps beat the
+     * lead suit, which beats everything else, and higher ranks beat lower
+     * ones within a suit. Cards that can't win have strength 0.
+     * The strength of card c with lead suit s is at s * DECK_SIZE + c.
+     */
+    private static final byte[] STRENGTH = new byte[4 * Game.DECK_SIZE];
+
+    static
+    {
+        for(Card c : CARDS)
+        {
+            SUIT_OF[c.ordinal()] = c.suit.ordinal();
+            SUITS[c.suit.ordinal()] |= bit(c);
+        }
+
+        for(Suit lead : Suit.values())
+        {
+            int base = lead.ordinal() * Game.DECK_SIZE;
+
+            for(Card c : CARDS)
+            {
+                if(c.suit == Game.TRUMP) STRENGTH[base + c.ordinal()] = (byte)(2 * Game.SUIT_SIZE + c.rank);
+                else if(c.suit == lead) STRENGTH[base + c.ordinal()] = (byte)(Game.SUIT_SIZE + c.rank);
+            }
+
+            for(int a = 0; a < Game.DECK_SIZE; a++)
+                for(int b = 0; b < Game.DECK_SIZE; b++)
+                    if(STRENGTH[base + a] > STRENGTH[base + b])
+                        BEATS[lead.ordinal()][a] |= 1L << b;
+        }
+    }
+
+    private Rules() {}
+
+    /** Return the bit representing a card in a hand. */
+    static long bit(Card c) { return 1L << c.ordinal(); }
+
+    /** Return the cards of a hand that may be played to a trick led in a suit. */
+    static long legal(long hand, int lead)
+    {
+        long follow = hand & SUITS[lead];
+        return follow != 0 ? follow : hand;
+    }
+
+    /** Returns true if the challenger wins a trick over the contested card, given the lead suit. */
+    static boolean beats(int lead, int challenger, int contested)
+    {
+        return (BEATS[lead][challenger] & (1L << contested)) != 0;
+    }
+
+    /**
+     * Returns true if the challenger beats the card currently winning a trick,
+     * whatever suit was led.
+     */
+    static boolean beats(Card challenger, Card winning)
+    {
+        // The winning card is either of the lead suit or a trump, and in
+        // both cases treating its suit as the lead gives the same answer.
+        return (BEATS[winning.suit.ordinal()][challenger.ordinal()] & bit(winning)) != 0;
+    }
+
+    /**
+     * Return which of three cards, in the order they were played, wins a
+     * trick. The first card sets the lead suit.
+     */
+    static int winner(int c0, int c1, int c2)
+    {
+        // Pack each card's position under its strength and take the
+        // maximum, which needs no branches. The lead card always has some
+        // strength, so ties between cards that can't win never matter.
+        int base = SUIT_OF[c0] * Game.DECK_SIZE;
+        int k0 = STRENGTH[base + c0] << 2;
+        int k1 = STRENGTH[base + c1] << 2 | 1;
+        int k2 = STRENGTH[base + c2] << 2 | 2;
+        return Math.max(k0, Math.max(k1, k2)) & 3;
+    }
+}
@@ -11,22 +11,90 @@ import java.io.*;
 public class Run
 {
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments:
+     *             number of games, number of threads (defaults to all cores), seed,
+     *             then any of "verify" to check the threaded games against the same games played on one thread,
+     *             "corpus=FILE" to play the deals in a corpus written by DealCorpus,
+     *             "duplicate" to replay every game under all six seatings,
+     *             "limits" to enforce the agents' time limits,
+     *             "metrics" to report latency percentiles of every call on each agent,
+     *             "log=DIR" to log every hand to binary files in a directory,
+     *             "search" to have Clever Girl search for as much of each move's time limit as it may without a near miss,
+     *             "searchThreads=N" to have it search on N threads at once,
+     *             "sharedTree" to have those threads search one tree at a time together,
+     *             "searchTime=MS" to have it search for that long instead,
+     *             "treeNodes=N" to give each of its search trees room for N nodes,
+     *             and "sprt" to stop as soon as it is decided whether Clever Girl
+     *             beats the left player by a point a game, treating the games as a budget
      */
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
         String friendlyAI = "Clever Girl";
-        int friendlyWins = 0;
-        int games = 1;
-        for(int i = 0; i < games; i ++)
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+        int searchTime = Arrays.asList(args).contains("search") ? Raptor.SEARCH_TIME : 0;
+        int searchThreads = 1;
+        int treeNodes = Raptor.TREE_NODES;
+        for(String arg : args)
+        {
+            if(arg.startsWith("searchThreads="))
+                searchThreads = Integer.parseInt(arg.substring(14));
+            else if(arg.startsWith("searchTime="))
+                searchTime = Integer.parseInt(arg.substring(11));
+            else if(arg.startsWith("treeNodes="))
+                treeNodes = Integer.parseInt(arg.substring(10));
+        }
+        int helpers = searchThreads;
+        int nodes = treeNodes;
+        int time = searchTime;
+        boolean shared = Arrays.asList(args).contains("sharedTree");
+        Tournament tournament = new Tournament(
+            s -> new RandomAgent(s), "Random left",
+            s -> new Raptor(friendlyAI, s, time, helpers, shared, nodes), friendlyAI,
+            s -> new RandomAgent(s), "Random right");
+        threads = Math.min(threads, Math.max(games, 1));
+        boolean verify = false;
+        boolean sequential = false;
+
+        for(int i = 3; i < args.length; i++)
         {
-            MossSideWhist game = new MossSideWhist(new RandomAgent(), new Raptor(), new RandomAgent());
-            game.playGame(1, System.out);
-            
-            friendlyWins += areYouWinning(friendlyAI, game.scoreboard) ? 1 : 0;
+            if(args[i].equals("verify"))
+                verify = true;
+            else if(args[i].equals("sprt"))
+                sequential = true;
+            else if(args[i].equals("metrics"))
+                tournament.useMetrics(true);
+            else if(args[i].equals("limits"))
+                tournament.useLimits(true);
+            else if(args[i].equals("duplicate"))
+                tournament.useDuplicates(true);
+            else if(args[i].startsWith("corpus="))
+                tournament.useCorpus(new DealCorpus(new File(args[i].substring(7))));
+            else if(args[i].startsWith("log="))
+            {
+                File dir = new File(args[i].substring(4));
+                dir.mkdirs();
+                tournament.useLog(dir);
+            }
         }
+
+        if(verify)
+        {
+            boolean same = tournament.verify(games, threads, seed);
+            System.out.println(same ? "Threaded games match sequential games." : "Threaded games DIFFER from sequential games!");
+            return;
+        }
+        Tournament.Result result;
+
+        if(sequential)
+            result = tournament.playUntilDecided(games, threads, seed, new Sprt(1, 0, 0.0, 1.0, 0.05, 0.05), System.out);
+        else
+            result = tournament.play(games, threads, seed);
         
-        System.out.println(friendlyAI + " won " + friendlyWins + " out of " + games + " games.");
+        result.print(System.out);
+        System.out.println(friendlyAI + " won " + result.wins(1) + " out of " + result.games() + " games.");
     }
     
     public static boolean areYouWinning(String player, Map<String, Integer> scoreboard)
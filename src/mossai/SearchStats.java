@@ -0,0 +1,15 @@
+package mossai;
+
+/**
+ * What an agent's search did for the last card it played, for agents that
+ * search. An agent may implement this as well as MSWAgent to have its
+ * searches recorded in a game's Metrics.
+ */
+public interface SearchStats
+{
+    /** Return the number of search iterations completed for the last move, or -1 if it wasn't searched. */
+    public int iterations();
+
+    /** Return the number of search iterations kept from earlier moves for the last move. */
+    public long carried();
+}
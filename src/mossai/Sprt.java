@@ -0,0 +1,73 @@
+package mossai;
+
+/**
+ * Sequential probability ratio test on the mean paired difference between
+ * two entrants' scores, used to stop a tournament as soon as the comparison
+ * is decided. The differences are treated as normal, with the variance
+ * estimated from the games so far.
+ */
+final class Sprt
+{
+    /** Games to play before the variance estimate is trusted. */
+    static final int MIN_GAMES = 64;
+
+    /** The entrants being compared, as a minus b. */
+    private final int a;
+    private final int b;
+
+    /** The mean differences under the null and alternative hypotheses. */
+    private final double mu0;
+    private final double mu1;
+
+    /** Log likelihood ratio bounds for accepting each hypothesis. */
+    private final double lower;
+    private final double upper;
+
+    /**
+     * Set up a test of whether entrant a beats entrant b by mu1 points a game
+     * rather than mu0.
+     * @param alpha the chance of accepting the alternative when the null holds
+     * @param beta the chance of accepting the null when the alternative holds
+     */
+    Sprt(int a, int b, double mu0, double mu1, double alpha, double beta)
+    {
+        this.a = a;
+        this.b = b;
+        this.mu0 = mu0;
+        this.mu1 = mu1;
+        lower = Math.log(beta / (1.0 - alpha));
+        upper = Math.log((1.0 - beta) / alpha);
+    }
+
+    /** Return the log likelihood ratio of the alternative over the null, given the results. */
+    double llr(Tournament.Result r)
+    {
+        double variance = r.differenceVariance(a, b);
+
+        if(r.games() < 2 || variance == 0.0) return 0.0;
+        else return (mu1 - mu0) / variance * r.games() * (r.difference(a, b) - (mu0 + mu1) / 2.0);
+    }
+
+    /** Return 1 if the alternative is accepted, -1 if the null is, or 0 to keep playing. */
+    int decide(Tournament.Result r)
+    {
+        if(r.games() < MIN_GAMES) return 0;
+
+        double llr = llr(r);
+
+        if(llr >= upper) return 1;
+        else if(llr <= lower) return -1;
+        else return 0;
+    }
+
+    /** Describe a decision. */
+    String describe(int decision)
+    {
+        switch(decision)
+        {
+            case 1: return "Accepted a mean difference of " + mu1 + " over " + mu0;
+            case -1: return "Accepted a mean difference of " + mu0 + " over " + mu1;
+            default: return "Undecided";
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package mossai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * Plays a large number of headless games of Moss Side Whist across several
+ * threads and collects statistics on each of the three entrants.
+ * Every worker owns its own engine and agents, and every game is dealt from a
+ * random stream seeded by the game's index, so results do not depend on how
+ * the games were shared out between the workers.
+ */
+public class Tournament
+{
+    /** Number of games a worker claims from the queue at a time. */
+    private static final int CHUNK = 16;
+
+    /** Every ordering of the entrants around the table, by seat. */
+    private static final int[][] SEATINGS = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+
+    /** Factories creating a fresh agent for each game, given a seed. */
+    private final List<LongFunction<MSWAgent>> entrants;
+
+    /** The names the entrants are reported under. */
+    private final String[] names;
+
+    /** Fixed deals to play instead of random ones, or null. */
+    private DealCorpus corpus;
+
+    /** Whether each game is replayed under every seating of the entrants. */
+    private boolean duplicate;
+
+    /** Whether the agents' time limits are enforced. */
+    private boolean limits;
+
+    /** Whether the latency of the agents' calls is recorded. */
+    private boolean timed;
+
+    /** The directory every hand is logged to, or null. */
+    private File logs;
+
+    /**
+     * Set up a tournament between three entrants. Entrant 1 leads the first
+     * hand of every game.
+     * @param p1 creates the first agent from a seed
+     * @param n1 the name to report the first agent under
+     */
+    public Tournament(LongFunction<MSWAgent> p1, String n1, LongFunction<MSWAgent> p2, String n2, LongFunction<MSWAgent> p3, String n3)
+    {
+        entrants = new ArrayList<>(3);
+        entrants.add(p1);
+        entrants.add(p2);
+        entrants.add(p3);
+        names = new String[] {n1, n2, n3};
+    }
+
+    /**
+     * Play deals from a corpus instead of random deals. Game g plays deals
+     * 3g, 3g+1 and 3g+2, so a tournament is reproducible bit for bit.
+     */
+    void useCorpus(DealCorpus deals) { corpus = deals; }
+
+    /**
+     * Replay the deals of every game under all six seatings of the entrants,
+     * and record the entrants' totals over the six as one result. Every
+     * entrant then holds every hand of every deal, so the card luck cancels
+     * out of the paired differences between entrants.
+     */
+    void useDuplicates(boolean on) { duplicate = on; }
+
+    /**
+     * Enforce the agents' time limits in every game, counting each entrant's
+     * timeouts and near misses. Late cards are replaced at random, so results
+     * are only reproducible if no call comes near its limit.
+     */
+    void useLimits(boolean on) { limits = on; }
+
+    /**
+     * Record latency histograms of every call on each entrant, and the rates
+     * hands and tricks are played at. Recording doesn't allocate, so it is
+     * cheap enough to leave on.
+     */
+    void useMetrics(boolean on) { timed = on; }
+
+    /**
+     * Log every hand played to a directory. Each worker appends to a file of
+     * its own, games-N.bin for worker N, so logging takes no locks; the files
+     * are appended to if they already exist.
+     * @param dir the directory to log to, or null to stop logging
+     */
+    void useLog(File dir) { logs = dir; }
+
+    /**
+     * Play a number of games, each of one full rotation, sharing them between
+     * a number of worker threads.
+     * @param games the number of games to play
+     * @param threads the number of worker threads
+     * @param seed the seed from which every game's random stream is derived
+     */
+    public Result play(int games, int threads, long seed)
+    {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> shards = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        long cpu = cpuTime();
+
+        for(int t = 0; t < threads; t++)
+        {
+            int worker = t;
+            shards.add(pool.submit(() -> work(worker, next, games, seed)));
+        }
+
+        // Each worker filled its own result, so they can be merged without locking.
+        Result total = new Result(names, timed);
+
+        try
+        {
+            for(Future<Result> shard : shards)
+                total.merge(shard.get());
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tournament interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException("A game failed", e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        total.nanos = System.nanoTime() - start;
+        total.cpuNanos = cpuTime() - cpu;
+        return total;
+    }
+
+    /**
+     * Play the same games on several threads and then on one, and check that
+     * every game came out the same. Any state shared between agents or engines
+     * on different threads shows up as a difference.
+     */
+    public boolean verify(int games, int threads, long seed)
+    {
+        return play(games, threads, seed).sameGames(play(games, 1, seed));
+    }
+
+    /**
+     * Play games until a sequential test decides between its hypotheses, or
+     * the budget runs out. Chunks of games are fed to the test in the order
+     * they were dealt, as soon as they are complete, so the stopping point
+     * does not depend on the number of threads. Games still under way when
+     * the test decides are wasted, but their CPU time is counted.
+     * @param budget the most games to play
+     * @param log where to report the decision and the games and CPU time saved
+     */
+    public Result playUntilDecided(int budget, int threads, long seed, Sprt test, PrintStream log)
+    {
+        int chunks = (budget + CHUNK - 1) / CHUNK;
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReferenceArray<Result> done = new AtomicReferenceArray<>(chunks);
+        BlockingQueue<Integer> arrivals = new LinkedBlockingQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        long cpu = cpuTime();
+
+        for(int t = 0; t < threads; t++)
+        {
+            int worker = t;
+            workers.add(pool.submit(() ->
+            {
+                try(GameLog hands = openLog(worker))
+                {
+                    int[] scores = new int[3];
+                    int[] total = new int[3];
+
+                    for(int c = next.getAndIncrement(); c < chunks && !stop.get(); c = next.getAndIncrement())
+                    {
+                        Result chunk = new Result(names, timed);
+                        playChunk(c * CHUNK, Math.min(c * CHUNK + CHUNK, budget), seed, chunk, scores, total, hands);
+                        done.set(c, chunk);
+                        arrivals.add(c);
+                    }
+                }
+                catch(RuntimeException | Error e)
+                {
+                    arrivals.add(-1);
+                    throw e;
+                }
+                catch(IOException e)
+                {
+                    arrivals.add(-1);
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        Result total = new Result(names, timed);
+        int merged = 0;
+        int decision = 0;
+
+        try
+        {
+            // Merge the completed chunks in order, testing after each one.
+            while(merged < chunks && decision == 0 && arrivals.take() >= 0)
+            {
+                for(Result r; merged < chunks && decision == 0 && (r = done.get(merged)) != null; merged++)
+                {
+                    total.merge(r);
+                    decision = test.decide(total);
+                }
+            }
+
+            stop.set(true);
+
+            for(Future<?> worker : workers)
+                worker.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tournament interrupted", e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException("A game failed", e.getCause());
+        }
+        finally
+        {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+
+        total.nanos = System.nanoTime() - start;
+        total.cpuNanos = cpuTime() - cpu;
+
+        // Count every chunk played, including those after the decision, whose CPU time was spent too.
+        long played = 0;
+
+        for(int c = 0; c < chunks; c++)
+            if(done.get(c) != null)
+                played += done.get(c).games;
+
+        double cpuPerGame = played == 0 ? 0.0 : (double)total.cpuNanos / played;
+        log.printf("%s after %d games (%d played in all) of a budget of %d.%n",
+            test.describe(decision), total.games, played, budget);
+        log.printf("Saved %d games and about %.1f CPU seconds.%n",
+            budget - played, (budget - played) * cpuPerGame / 1e9);
+        return total;
+    }
+
+    /** Claim and play chunks of games until none are left. */
+    private Result work(int worker, AtomicInteger next, int games, long seed) throws IOException
+    {
+        Result local = new Result(names, timed);
+        int[] scores = new int[3];
+        int[] total = new int[3];
+
+        try(GameLog log = openLog(worker))
+        {
+            for(int from = next.getAndAdd(CHUNK); from < games; from = next.getAndAdd(CHUNK))
+                playChunk(from, Math.min(from + CHUNK, games), seed, local, scores, total, log);
+        }
+
+        return local;
+    }
+
+    /**
+     * Open a worker's log, with the entrants registered in order so that
+     * their ids in a new log are their entrant numbers, or return null if
+     * hands aren't being logged.
+     */
+    private GameLog openLog(int worker) throws IOException
+    {
+        if(logs == null) return null;
+
+        GameLog log = new GameLog(new File(logs, "games-" + worker + ".bin"));
+
+        for(String name : names)
+            log.id(name);
+
+        return log;
+    }
+
+    /** Play a run of consecutive games, recording them in a result and logging them if a log is given. */
+    private void playChunk(int from, int to, long seed, Result into, int[] scores, int[] total, GameLog log)
+    {
+        for(int g = from; g < to; g++)
+        {
+            if(duplicate)
+            {
+                Arrays.fill(total, 0);
+
+                for(int[] seating : SEATINGS)
+                {
+                    playOne(g, mix(seed + g), seating, scores, into, log);
+
+                    for(int e = 0; e < 3; e++)
+                        total[e] += scores[e];
+                }
+
+                into.record(g, total);
+            }
+            else
+            {
+                playOne(g, mix(seed + g), SEATINGS[0], scores, into, log);
+                into.record(g, scores);
+            }
+        }
+    }
+
+    /**
+     * Return the CPU time used by the whole process, in nanoseconds, or 0 if
+     * unsupported. Agents do much of their work off the workers' threads, on
+     * the watchdog's threads and their own search threads, so the workers'
+     * own CPU time would leave it out.
+     */
+    private static long cpuTime()
+    {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+        if(bean instanceof com.sun.management.OperatingSystemMXBean)
+            return Math.max(((com.sun.management.OperatingSystemMXBean)bean).getProcessCpuTime(), 0L);
+
+        return 0L;
+    }
+
+    /**
+     * Play a single game from a seed, with the entrants in the given seats,
+     * and fill in the final scores of each entrant. Any timeouts are added
+     * to the given result, and its hands to the log if one is given.
+     */
+    void playOne(int g, long gameSeed, int[] seating, int[] scores, Result into, GameLog log)
+    {
+        MossSideWhist game = new MossSideWhist(
+            entrants.get(seating[0]).apply(mix(gameSeed + 1 + seating[0])),
+            entrants.get(seating[1]).apply(mix(gameSeed + 1 + seating[1])),
+            entrants.get(seating[2]).apply(mix(gameSeed + 1 + seating[2])));
+        game.seed(gameSeed);
+
+        if(corpus != null)
+            game.useCorpus(corpus, 3 * g);
+
+        game.enforceLimits(limits);
+        game.useMetrics(into.metrics, seating);
+
+        if(log != null)
+        {
+            try
+            {
+                game.useLog(log, new int[] {log.id(names[seating[0]]), log.id(names[seating[1]]), log.id(names[seating[2]])});
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        game.playGame(1);
+        game.enforceLimits(false);
+
+        for(int s = 0; s < 3; s++)
+        {
+            scores[seating[s]] = game.score(s);
+            into.timeouts[seating[s]] += game.timeouts(s);
+            into.nearMisses[seating[s]] += game.nearMisses(s);
+        }
+    }
+
+    /** SplitMix64 finaliser, giving well spread, independent seeds from consecutive longs. */
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Running totals for each entrant, over some number of games. */
+    public static final class Result
+    {
+        /** The names the entrants are reported under. */
+        private final String[] names;
+
+        /** Games played. */
+        private long games;
+
+        /** Games each entrant won outright. */
+        private final long[] wins = new long[3];
+
+        /** Sum of each entrant's final scores. */
+        private final long[] sum = new long[3];
+
+        /** Sum of the squares of each entrant's final scores. */
+        private final long[] sumSq = new long[3];
+
+        /** Sum of the paired differences in score, entrant e minus entrant e+1. */
+        private final long[] diffSum = new long[3];
+
+        /** Sum of the squares of the paired differences. */
+        private final long[] diffSumSq = new long[3];
+
+        /** Agent calls that missed their deadline, by entrant. */
+        private final long[] timeouts = new long[3];
+
+        /** Agent calls that used most of their time limit, by entrant. */
+        private final long[] nearMisses = new long[3];
+
+        /** Order independent digest of every game's index and final scores. */
+        private long digest;
+
+        /** Wall clock time taken, in nanoseconds. */
+        private long nanos;
+
+        /** Latencies of the entrants' calls, if recorded, or null. */
+        private final Metrics metrics;
+
+        /** CPU time taken by the process while the games were played, in nanoseconds. */
+        private long cpuNanos;
+
+        Result(String[] names, boolean timed)
+        {
+            this.names = names;
+            metrics = timed ? new Metrics() : null;
+        }
+
+        /** Add one game's final scores. A win requires a score strictly above both others. */
+        void record(int game, int[] scores)
+        {
+            games++;
+            digest += mix(mix(game) ^ (scores[0] & 0xffff) ^ (scores[1] & 0xffffL) << 16 ^ (scores[2] & 0xffffL) << 32);
+
+            for(int s = 0; s < 3; s++)
+            {
+                sum[s] += scores[s];
+                sumSq[s] += scores[s] * scores[s];
+
+                if(scores[s] > scores[(s+1)%3] && scores[s] > scores[(s+2)%3])
+                    wins[s]++;
+
+                long diff = scores[s] - scores[(s+1)%3];
+                diffSum[s] += diff;
+                diffSumSq[s] += diff * diff;
+            }
+        }
+
+        /** Add the totals of another result to this one. */
+        void merge(Result other)
+        {
+            games += other.games;
+            digest += other.digest;
+            cpuNanos += other.cpuNanos;
+
+            if(metrics != null && other.metrics != null)
+                metrics.merge(other.metrics);
+
+            for(int s = 0; s < 3; s++)
+            {
+                wins[s] += other.wins[s];
+                sum[s] += other.sum[s];
+                sumSq[s] += other.sumSq[s];
+                diffSum[s] += other.diffSum[s];
+                diffSumSq[s] += other.diffSumSq[s];
+                timeouts[s] += other.timeouts[s];
+                nearMisses[s] += other.nearMisses[s];
+            }
+        }
+
+        /** Returns true if both results hold exactly the same games with the same scores. */
+        public boolean sameGames(Result other)
+        {
+            return games == other.games && digest == other.digest;
+        }
+
+        /** Return the number of games played. */
+        public long games() { return games; }
+
+        /** Return the number of games an entrant won outright. */
+        public long wins(int entrant) { return wins[entrant]; }
+
+        /** Return an entrant's mean final score. */
+        public double mean(int entrant) { return games == 0 ? 0.0 : (double)sum[entrant] / games; }
+
+        /** Return the half width of the 95% confidence interval on an entrant's mean score. */
+        public double interval(int entrant) { return interval(sum[entrant], sumSq[entrant]); }
+
+        /** Return the mean paired difference between two entrants' scores, a minus b. */
+        public double difference(int a, int b)
+        {
+            if(games == 0) return 0.0;
+            else if((a+1)%3 == b) return (double)diffSum[a] / games;
+            else return -(double)diffSum[b] / games;
+        }
+
+        /** Return the sample variance of the paired difference between two entrants' scores. */
+        public double differenceVariance(int a, int b)
+        {
+            int pair = (a+1)%3 == b ? a : b;
+            return variance(diffSum[pair], diffSumSq[pair]);
+        }
+
+        /** Return the half width of the 95% confidence interval on a paired difference. */
+        public double differenceInterval(int a, int b)
+        {
+            int pair = (a+1)%3 == b ? a : b;
+            return interval(diffSum[pair], diffSumSq[pair]);
+        }
+
+        /** Half width of the 95% confidence interval on the mean of a sample, from its sums. */
+        private double interval(long total, long totalSq)
+        {
+            if(games < 2) return Double.POSITIVE_INFINITY;
+            else return 1.96 * Math.sqrt(variance(total, totalSq) / games);
+        }
+
+        /** Sample variance, from the sum and sum of squares of a sample. */
+        private double variance(long total, long totalSq)
+        {
+            if(games < 2) return Double.POSITIVE_INFINITY;
+
+            double mean = (double)total / games;
+            return Math.max(((double)totalSq - games * mean * mean) / (games - 1), 0.0);
+        }
+
+        /** Return the wall clock throughput of the tournament. */
+        public double gamesPerSecond() { return nanos == 0 ? 0.0 : games * 1e9 / nanos; }
+
+        /** Write a summary of the results. */
+        public void print(PrintStream out)
+        {
+            for(int s = 0; s < 3; s++)
+                out.printf("%s: won %d of %d games, mean score %.3f +/- %.3f%n",
+                    names[s], wins[s], games, mean(s), interval(s));
+
+            for(int s = 0; s < 3; s++)
+                if(timeouts[s] + nearMisses[s] > 0)
+                    out.printf("%s: %d timeouts, %d near misses%n", names[s], timeouts[s], nearMisses[s]);
+
+            for(int s = 0; s < 3; s++)
+                out.printf("%s - %s: %.3f +/- %.3f%n",
+                    names[s], names[(s+1)%3], difference(s, (s+1)%3), differenceInterval(s, (s+1)%3));
+
+            if(metrics != null)
+                metrics.print(out, names);
+
+            out.printf("%d games in %.2f s (%.1f games/s, %.2f CPU s)%n", games, nanos / 1e9, gamesPerSecond(), cpuNanos / 1e9);
+        }
+    }
+}
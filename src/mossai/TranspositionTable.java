@@ -0,0 +1,160 @@
+package mossai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size table of values found for positions, keyed by their Zobrist
+ * hashes, so a position reached by several orders of play is only worked
+ * out once. Searches store statistics here (visits and reward, for Monte
+ * Carlo search) or bounds (for exact solving); a value is any long other
+ * than MISS, with a priority saying how much work it stands for.
+ * <p>
+ * Each key hashes to a bucket of two slots: the first keeps the position
+ * with the higher priority and the second is always replaced. A key whose
+ * priority beats the first slot's takes it, moving what was there to the
+ * second; any other key takes the second. So a valuable position is only
+ * pushed out by a more valuable one, while new positions still always
+ * find room, and a position in the second slot that gains enough priority
+ * moves up to the first.
+ * <p>
+ * The table takes no locks. Each slot keeps its value and the value XORed
+ * with the key, written one after the other; a read that finds the two
+ * don't match the key treats the slot as empty, so a value torn by a write
+ * from another thread is never returned. Updates from two threads at once
+ * can lose one of them, which costs a search a visit and nothing more.
+ */
+final class TranspositionTable
+{
+    /** Returned by probe when a position isn't in the table. */
+    static final long MISS = Long.MIN_VALUE;
+
+    private final int mask;
+    private final long[] checks;
+    private final long[] values;
+    private final int[] priorities;
+
+    /** Lookups, lookups that found their key, stores, and stores that evicted another key. */
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Create an empty table with room for a number of positions, rounded up to a power of two. */
+    TranspositionTable(int slots)
+    {
+        int size = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        mask = size - 2;
+        checks = new long[size];
+        values = new long[size];
+        priorities = new int[size];
+    }
+
+    /** Return the value stored for a key, or MISS. */
+    long probe(long key)
+    {
+        probes.increment();
+        int slot = find(key);
+
+        if(slot < 0)
+            return MISS;
+
+        hits.increment();
+        return values[slot];
+    }
+
+    /** Empty the table, for a new hand whose positions can't share values with the last. */
+    void clear()
+    {
+        Arrays.fill(checks, 0L);
+        Arrays.fill(values, 0L);
+        Arrays.fill(priorities, 0);
+    }
+
+    /** Store a value for a key with a priority, in the first slot of its bucket if the priority beats the one there. */
+    void store(long key, long value, int priority)
+    {
+        stores.increment();
+        int b = bucket(key);
+        int slot = find(key);
+
+        if(slot == b)
+        {
+            write(b, key, value, priority);
+            return;
+        }
+
+        // The second slot's position is lost unless it is the key's own.
+        if(slot < 0 && used(b + 1))
+            evictions.increment();
+
+        if(priority > priorities[b])
+        {
+            if(used(b))
+                write(b + 1, checks[b] ^ values[b], values[b], priorities[b]);
+
+            write(b, key, value, priority);
+        }
+        else write(b + 1, key, value, priority);
+    }
+
+    /**
+     * Add an iteration's reward to the statistics of a position, as packed
+     * by stats, and count the visit. Priority is by visits.
+     */
+    void add(long key, long reward)
+    {
+        int slot = find(key);
+        long old = slot < 0 ? 0L : values[slot];
+        long now = stats(visits(old) + 1, reward(old) + reward);
+        store(key, now, (int)Math.min(visits(now), Integer.MAX_VALUE));
+    }
+
+    /** Pack a visit count and a total reward, each under 2^31, into a value. */
+    static long stats(long visits, long reward) { return visits << 32 | reward; }
+
+    /** Return the visits packed in a value by stats. */
+    static long visits(long stats) { return stats >>> 32; }
+
+    /** Return the reward packed in a value by stats. */
+    static long reward(long stats) { return stats & 0xFFFFFFFFL; }
+
+    /** Return the fraction of lookups that found their key. */
+    double hitRate()
+    {
+        long p = probes.sum();
+        return p == 0 ? 0.0 : hits.sum() / (double)p;
+    }
+
+    long probes() { return probes.sum(); }
+    long hits() { return hits.sum(); }
+    long stores() { return stores.sum(); }
+    long evictions() { return evictions.sum(); }
+
+    /** Return the slot holding a key, or -1. */
+    private int find(long key)
+    {
+        int b = bucket(key);
+
+        for(int slot = b; slot < b + 2; slot++)
+        {
+            long v = values[slot];
+
+            if((checks[slot] ^ v) == key)
+                return slot;
+        }
+
+        return -1;
+    }
+
+    private boolean used(int slot) { return checks[slot] != 0 || values[slot] != 0; }
+
+    private void write(int slot, long key, long value, int priority)
+    {
+        values[slot] = value;
+        checks[slot] = key ^ value;
+        priorities[slot] = priority;
+    }
+
+    private int bucket(long key) { return (int)(key ^ key >>> 32) & mask; }
+}
@@ -0,0 +1,209 @@
+package mossai;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Enforces the time limits MSWAgent documents on the calls the engine makes
+ * during play. Each seat's calls, timed or not, run in order on a thread of
+ * their own, and the engine waits for each only until its deadline. A call
+ * that misses its deadline is left to finish in the background, ahead of
+ * that seat's later calls, and the engine carries on without its result.
+ * A call is timed from when it starts, so one queued behind a late call
+ * isn't charged for the wait as well.
+ * Every timeout, and every call that finished but used most of its limit,
+ * is counted per seat.
+ */
+final class Watchdog
+{
+    /** The kinds of call that are timed. */
+    static final int PLAY_CARD = 0;
+    static final int SEE_CARD = 1;
+    static final int SEE_RESULT = 2;
+    static final int SEE_SCORE = 3;
+
+    /** Names of the kinds of call, for reporting. */
+    static final String[] CALLS = {"playCard", "seeCard", "seeResult", "seeScore"};
+
+    /** The time limit on each kind of call, in milliseconds. */
+    static final long[] LIMITS = {200, 50, 50, 50};
+
+    /** The fraction of a limit beyond which a call counts as a near miss. */
+    static final double NEAR_MISS = 0.8;
+
+    /**
+     * The longest a timed call waits for a late call ahead of it to finish,
+     * in milliseconds, before it is counted as timed out itself.
+     */
+    static final long QUEUED = 1000;
+
+    /** The agents being timed, by seat. */
+    private final MSWAgent[] agents;
+
+    /** A single thread per seat, so each agent sees its calls in order. */
+    private final ExecutorService[] threads;
+
+    /** Calls that missed their deadline, by seat and kind. */
+    private final int[][] timeouts = new int[3][CALLS.length];
+
+    /** Calls that made their deadline but used more than NEAR_MISS of it, by seat and kind. */
+    private final int[][] nearMisses = new int[3][CALLS.length];
+
+    /**
+     * Create a watchdog with threads of its own for each seat.
+     * @param previous a watchdog shut down earlier whose counts to carry on from, or null
+     */
+    Watchdog(MSWAgent[] agents, Watchdog previous)
+    {
+        this.agents = agents;
+        threads = new ExecutorService[agents.length];
+
+        for(int s = 0; previous != null && s < 3; s++)
+        {
+            System.arraycopy(previous.timeouts[s], 0, timeouts[s], 0, CALLS.length);
+            System.arraycopy(previous.nearMisses[s], 0, nearMisses[s], 0, CALLS.length);
+        }
+
+        for(int s = 0; s < agents.length; s++)
+        {
+            final int seat = s;
+            threads[s] = Executors.newSingleThreadExecutor(r ->
+            {
+                Thread t = new Thread(r, "watchdog seat " + seat);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Show an agent its hand, untimed, once any of its calls still running finish. */
+    void seeHand(int seat, List<Card> hand, int order)
+    {
+        untimed(seat, () -> { agents[seat].seeHand(hand, order); return null; });
+    }
+
+    /** Ask the leader for its discards, untimed, once any of its calls still running finish. */
+    Card[] discard(int seat)
+    {
+        return untimed(seat, () -> agents[seat].discard());
+    }
+
+    /** Ask an agent for a card, returning null if it runs out of time. */
+    Card playCard(int seat)
+    {
+        return call(seat, PLAY_CARD, () -> agents[seat].playCard());
+    }
+
+    /** Show an agent a card. */
+    void seeCard(int seat, Card card, String player)
+    {
+        call(seat, SEE_CARD, () -> { agents[seat].seeCard(card, player); return null; });
+    }
+
+    /** Show an agent the winner of a trick. */
+    void seeResult(int seat, String winner)
+    {
+        call(seat, SEE_RESULT, () -> { agents[seat].seeResult(winner); return null; });
+    }
+
+    /** Show an agent the scores. */
+    void seeScore(int seat, Map<String, Integer> scoreboard)
+    {
+        call(seat, SEE_SCORE, () -> { agents[seat].seeScore(scoreboard); return null; });
+    }
+
+    /** Return the number of calls of a kind that missed their deadline for a seat. */
+    int timeouts(int seat, int kind) { return timeouts[seat][kind]; }
+
+    /** Return the number of calls of a kind that nearly missed their deadline for a seat. */
+    int nearMisses(int seat, int kind) { return nearMisses[seat][kind]; }
+
+    /** Stop the seats' threads once any calls still running finish. */
+    void shutdown()
+    {
+        for(ExecutorService thread : threads)
+            thread.shutdown();
+    }
+
+    /**
+     * Run a call on a seat's thread, waiting until its deadline at most,
+     * counted from when the call starts.
+     */
+    private <T> T call(int seat, int kind, Callable<T> task)
+    {
+        long limit = TimeUnit.MILLISECONDS.toNanos(LIMITS[kind]);
+        CountDownLatch started = new CountDownLatch(1);
+        long[] start = new long[1];
+
+        Future<T> future = threads[seat].submit(() ->
+        {
+            start[0] = System.nanoTime();
+            started.countDown();
+            return task.call();
+        });
+
+        try
+        {
+            if(!started.await(QUEUED, TimeUnit.MILLISECONDS))
+            {
+                timeouts[seat][kind]++;
+                return null;
+            }
+
+            T result = future.get(Math.max(start[0] + limit - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+
+            if(System.nanoTime() - start[0] > NEAR_MISS * limit)
+                nearMisses[seat][kind]++;
+
+            return result;
+        }
+        catch(TimeoutException e)
+        {
+            timeouts[seat][kind]++;
+            return null;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch(ExecutionException e)
+        {
+            throw failure(e);
+        }
+    }
+
+    /** Run a call on a seat's thread, after any still running, and wait for it however long it takes. */
+    private <T> T untimed(int seat, Callable<T> task)
+    {
+        try
+        {
+            return threads[seat].submit(task).get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch(ExecutionException e)
+        {
+            throw failure(e);
+        }
+    }
+
+    /** Return an agent's own failure in a call, to propagate as it would from a direct call. */
+    private static RuntimeException failure(ExecutionException e)
+    {
+        if(e.getCause() instanceof RuntimeException) return (RuntimeException)e.getCause();
+        else if(e.getCause() instanceof Error) throw (Error)e.getCause();
+        else return new IllegalStateException(e.getCause());
+    }
+}
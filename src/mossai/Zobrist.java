@@ -0,0 +1,65 @@
+package mossai;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing of positions in a hand. A position's hash
+ * is the XOR of the keys of everything true of it, so it can be kept up to
+ * date as cards are played by XORing out what stopped being true and XORing
+ * in what became true, and two orders of play that reach the same position
+ * reach the same hash. Cards are indexed by ordinal and players by their
+ * position relative to the leader.
+ */
+final class Zobrist
+{
+    /** A card dealt to the player the position is seen by. */
+    static final long[] HAND = new long[Game.DECK_SIZE];
+
+    /** A card on the table in the trick under way, by the player who played it. */
+    static final long[][] TABLE = new long[3][Game.DECK_SIZE];
+
+    /** A card played to a finished trick, by the player who played it. */
+    static final long[][] PLAYED = new long[3][Game.DECK_SIZE];
+
+    /** The player leading the trick under way. */
+    static final long[] LEADER = new long[3];
+
+    /** A player's score, from -8 to 16, offset by 8. */
+    static final long[][] SCORE = new long[3][25];
+
+    /** The player who made the last move, for telling apart values kept for different players. */
+    static final long[] MOVER = new long[3];
+
+    /** A card in a player's hand, for positions in which every hand is known. */
+    static final long[][] HELD = new long[3][Game.DECK_SIZE];
+
+    static
+    {
+        // A fixed seed, so hashes are the same from run to run.
+        SplittableRandom rand = new SplittableRandom(0x5A0B415DL);
+
+        for(int c = 0; c < Game.DECK_SIZE; c++)
+            HAND[c] = rand.nextLong();
+
+        for(int p = 0; p < 3; p++)
+        {
+            for(int c = 0; c < Game.DECK_SIZE; c++)
+            {
+                TABLE[p][c] = rand.nextLong();
+                PLAYED[p][c] = rand.nextLong();
+            }
+
+            for(int s = 0; s < SCORE[p].length; s++)
+                SCORE[p][s] = rand.nextLong();
+
+            LEADER[p] = rand.nextLong();
+            MOVER[p] = rand.nextLong();
+        }
+
+        for(int p = 0; p < 3; p++)
+            for(int c = 0; c < Game.DECK_SIZE; c++)
+                HELD[p][c] = rand.nextLong();
+    }
+
+    private Zobrist() {}
+}